@@ -0,0 +1,269 @@
+package com.cameloper.BlueprintZ;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Benchmarks every {@link PartManager} operation over synthetic catalogs.
+ * <p>
+ * Each benchmark runs over every combination of the catalog parameters.
+ * Before each iteration the benchmark is set up anew on a fresh catalog,
+ * then a fixed count of operations is timed. Besides the time per operation,
+ * the bytes allocated per operation and the garbage collections during the
+ * measured iterations are reported.
+ * <p>
+ * Usage: {@code BenchmarkRunner [--parts 1000,10000] [--width 4] [--depth 6]
+ * [--sharing 0.1,0.5] [--warmup 2] [--iterations 5] [--ops 2000] [--filter name]}
+ */
+public final class BenchmarkRunner {
+    private static final long SEED = 42;
+    private static final int NEW_ASSEMBLY_SIZE = 4;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * Keeps the results of the operations alive, so that they are not optimized away
+     */
+    private static volatile int blackhole;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * Runs the benchmarks
+     *
+     * @param args Options, see the class description
+     * @throws IOException if the snapshot for the command benchmark could not be written
+     */
+    public static void main(String[] args) throws IOException {
+        HashMap<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+
+        int warmup = Integer.parseInt(options.getOrDefault("--warmup", "2"));
+        int iterations = Integer.parseInt(options.getOrDefault("--iterations", "5"));
+        int ops = Integer.parseInt(options.getOrDefault("--ops", "2000"));
+        String filter = options.getOrDefault("--filter", "");
+
+        System.out.printf("%-20s %-42s %12s %10s %12s %8s %8s%n",
+                "Benchmark", "Catalog", "ns/op", "+- stddev", "B/op", "gc.count", "gc.ms");
+        for (String parts : options.getOrDefault("--parts", "10000").split(",")) {
+            for (String width : options.getOrDefault("--width", "4").split(",")) {
+                for (String depth : options.getOrDefault("--depth", "6").split(",")) {
+                    for (String sharing : options.getOrDefault("--sharing", "0.3").split(",")) {
+                        Catalog catalog = new Catalog(Integer.parseInt(parts), Integer.parseInt(width),
+                                Integer.parseInt(depth), Double.parseDouble(sharing), SEED);
+                        for (Benchmark benchmark : benchmarks(catalog, ops)) {
+                            if (benchmark.name.contains(filter))
+                                run(benchmark, catalog, warmup, iterations, ops);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives every benchmark. Each one prepares a fresh state for an
+     * iteration and gives the operation to time on it.
+     */
+    private static ArrayList<Benchmark> benchmarks(Catalog catalog, int ops) throws IOException {
+        Random random = new Random(SEED);
+        ArrayList<Benchmark> benchmarks = new ArrayList<>();
+
+        ArrayList<HashMap<String, Integer>> newChildren = new ArrayList<>();
+        String[] newIds = new String[ops];
+        String[][] additions = new String[ops][];
+        String[][] removals = new String[ops][];
+        String[][] cycles = new String[ops][];
+        String[] assemblies = new String[ops];
+        String[] products = new String[ops];
+        for (int i = 0; i < ops; i++) {
+            newIds[i] = "Q" + Catalog.name(i);
+            HashMap<String, Integer> children = new HashMap<>();
+            for (int j = 0; j < NEW_ASSEMBLY_SIZE; j++) {
+                children.put(randomPart(catalog, random, 1), 1 + random.nextInt(Main.Defaults.MAX_AMOUNT));
+            }
+            newChildren.add(children);
+
+            int layer = random.nextInt(catalog.getDepth());
+            String parent = randomPart(catalog, random, layer);
+            additions[i] = new String[]{parent, randomPart(catalog, random, layer + 1)};
+
+            int index = random.nextInt(catalog.getAssemblyCount());
+            removals[i] = new String[]{catalog.assemblyAt(index), catalog.childrenOf(index).keySet().iterator().next()};
+
+            String deepAssembly = randomPartOf(catalog.layer(catalog.getDepth() - 1), random);
+            cycles[i] = new String[]{deepAssembly, catalog.productAbove(deepAssembly)};
+
+            assemblies[i] = catalog.assemblyAt(random.nextInt(catalog.getAssemblyCount()));
+            products[i] = randomPartOf(catalog.layer(0), random);
+        }
+
+        benchmarks.add(new Benchmark("addAssemblyWith", manager -> i ->
+                manager.addAssemblyWith(newIds[i], newChildren.get(i))));
+        benchmarks.add(new Benchmark("addPart", manager -> i ->
+                manager.addPart(additions[i][0], additions[i][1], 1)));
+        benchmarks.add(new Benchmark("removePart", manager -> {
+            for (String[] removal : removals) {
+                manager.addPart(removal[0], removal[1], 1);
+            }
+            return i -> manager.removePart(removals[i][0], removals[i][1], 1);
+        }));
+        benchmarks.add(new Benchmark("removeAssemblyWith", manager -> {
+            for (int i = 0; i < ops; i++) {
+                manager.addAssemblyWith(newIds[i], newChildren.get(i));
+            }
+            return i -> manager.removeAssemblyWith(newIds[i]);
+        }));
+        benchmarks.add(new Benchmark("cycleCheck", manager -> i ->
+                manager.addPart(cycles[i][0], cycles[i][1], 1)));
+        benchmarks.add(new Benchmark("childrenOf", manager -> {
+            PartList list = new PartList();
+            catalog.applyTo(list);
+            return i -> list.childrenOf(list.getPartWith(products[i]), Part.Type.COMPONENT);
+        }));
+        benchmarks.add(new Benchmark("getComponentsOf", manager -> i ->
+                manager.getComponentsOf(products[i])));
+        benchmarks.add(new Benchmark("printAssemblyWith", manager -> i ->
+                manager.printAssemblyWith(assemblies[i])));
+
+        // The command path always works on the main manager, which is reset from a snapshot
+        Path snapshot = Files.createTempFile("catalog", ".snapshot");
+        snapshot.toFile().deleteOnExit();
+        PartManager source = new PartManager();
+        catalog.applyTo(source);
+        source.save(snapshot.toString());
+
+        String[] lines = new String[ops];
+        for (int i = 0; i < ops; i++) {
+            switch (i % 4) {
+                case 0:
+                    lines[i] = "addPart " + additions[i][0] + "+1:" + additions[i][1];
+                    break;
+                case 1:
+                    lines[i] = "removePart " + additions[i - 1][0] + "-1:" + additions[i - 1][1];
+                    break;
+                case 2:
+                    lines[i] = "getComponents " + products[i];
+                    break;
+                default:
+                    lines[i] = "printAssembly " + assemblies[i];
+                    break;
+            }
+        }
+        benchmarks.add(new Benchmark("operation", manager -> {
+            PartManager.MAIN.load(snapshot.toString());
+            return i -> {
+                Result<Operation> operation = Operation.buildWith(lines[i]);
+                return operation.value.validate() ? operation.value.execute() : null;
+            };
+        }, true));
+
+        return benchmarks;
+    }
+
+    private static void run(Benchmark benchmark, Catalog catalog, int warmup, int iterations, int ops) {
+        for (int w = 0; w < warmup; w++) {
+            measure(benchmark, catalog, ops);
+        }
+
+        double[] nanosPerOp = new double[iterations];
+        double bytesPerOp = 0;
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (int it = 0; it < iterations; it++) {
+            long[] result = measure(benchmark, catalog, ops);
+            nanosPerOp[it] = (double) result[0] / ops;
+            bytesPerOp += (double) result[1] / ops / iterations;
+            gcCount += result[2];
+            gcMillis += result[3];
+        }
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value / iterations;
+        }
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean) / Math.max(1, iterations - 1);
+        }
+
+        System.out.printf("%-20s %-42s %12.1f %10.1f %12.1f %8d %8d%n",
+                benchmark.name, catalog, mean, Math.sqrt(variance), bytesPerOp, gcCount, gcMillis);
+    }
+
+    /**
+     * Sets the benchmark up and times one iteration
+     *
+     * @return Nanoseconds, allocated bytes, garbage collections and their milliseconds
+     */
+    private static long[] measure(Benchmark benchmark, Catalog catalog, int ops) {
+        PartManager manager = new PartManager();
+        if (!benchmark.usesMain)
+            catalog.applyTo(manager);
+        IntFunction<Object> operation = benchmark.setup.apply(manager);
+
+        long[] gcBefore = gcTotals();
+        long bytesBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            Object result = operation.apply(i);
+            blackhole ^= System.identityHashCode(result);
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = THREADS.getCurrentThreadAllocatedBytes() - bytesBefore;
+        long[] gcAfter = gcTotals();
+
+        return new long[]{nanos, bytes, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]};
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+
+        return new long[]{count, millis};
+    }
+
+    private static String randomPart(Catalog catalog, Random random, int layer) {
+        return randomPartOf(catalog.layer(Math.min(layer, catalog.getDepth())), random);
+    }
+
+    private static String randomPartOf(String[] layer, Random random) {
+        return layer[random.nextInt(layer.length)];
+    }
+
+    /**
+     * A named benchmark with the setup of an iteration
+     */
+    private static final class Benchmark {
+        final String name;
+        final Function<PartManager, IntFunction<Object>> setup;
+        final boolean usesMain;
+
+        Benchmark(String name, Function<PartManager, IntFunction<Object>> setup) {
+            this(name, setup, false);
+        }
+
+        Benchmark(String name, Function<PartManager, IntFunction<Object>> setup, boolean usesMain) {
+            this.name = name;
+            this.setup = setup;
+            this.usesMain = usesMain;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.cameloper.BlueprintZ;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checks that the {@link ExplosionCache} never hands out a stale answer.
+ * <p>
+ * A writer applies random changes to two managers alike and queries both
+ * after some of them. One manager caches as usual while reader threads keep
+ * querying it, so that entries are filled in concurrently with every
+ * invalidation. The other one never caches: its cache is cleared at the
+ * highest version, which no entry can ever be valid for. Every answer of the
+ * caching manager must equal the one of the other manager.
+ * <p>
+ * Usage: {@code CacheCheck [--rounds 10] [--ops 20000] [--readers 8] [--names 60] [--seed 0]}
+ */
+public final class CacheCheck {
+    private static final int MAX_CHILDREN = 3;
+    private static final int MAX_AMOUNT = 5;
+    private static final int QUERY_RATIO = 3;
+
+    private CacheCheck() {
+    }
+
+    /**
+     * Runs every round and exits with status 1 if any answer differed
+     *
+     * @param args Options, see the class description
+     * @throws InterruptedException if waiting for a reader was interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        HashMap<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+
+        int rounds = Integer.parseInt(options.getOrDefault("--rounds", "10"));
+        int ops = Integer.parseInt(options.getOrDefault("--ops", "20000"));
+        int readers = Integer.parseInt(options.getOrDefault("--readers", "8"));
+        int names = Integer.parseInt(options.getOrDefault("--names", "60"));
+        long seed = Long.parseLong(options.getOrDefault("--seed", "0"));
+
+        long mismatches = 0;
+        for (int round = 0; round < rounds; round++) {
+            mismatches += runRound(ops, readers, names, seed + round);
+        }
+
+        System.out.printf("%d rounds of %d changes, %d mismatches%n", rounds, ops, mismatches);
+        if (mismatches > 0)
+            System.exit(1);
+    }
+
+    private static long runRound(int ops, int readers, int names, long seed) throws InterruptedException {
+        PartManager cached = new PartManager();
+        PartManager uncached = new PartManager();
+        uncached.getExplosionCache().clear(Long.MAX_VALUE);
+
+        AtomicBoolean isDone = new AtomicBoolean();
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < readers; t++) {
+            Random random = new Random(seed * readers + t);
+            Thread thread = new Thread(() -> {
+                while (!isDone.get()) {
+                    query(cached, random.nextInt(QUERY_RATIO), name(random, names));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long mismatches = 0;
+        Random random = new Random(seed);
+        for (int i = 0; i < ops; i++) {
+            long changeSeed = random.nextLong();
+            change(cached, new Random(changeSeed), names);
+            change(uncached, new Random(changeSeed), names);
+            if (random.nextInt(QUERY_RATIO) != 0)
+                continue;
+
+            int kind = random.nextInt(QUERY_RATIO);
+            String id = name(random, names);
+            String expected = query(uncached, kind, id);
+            String actual = query(cached, kind, id);
+            if (!expected.equals(actual)) {
+                mismatches++;
+                System.out.printf("MISMATCH seed %d change %d on %s: %s instead of %s%n",
+                        seed, i, id, actual, expected);
+            }
+        }
+
+        isDone.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return mismatches;
+    }
+
+    /**
+     * Applies one random change to the given manager
+     */
+    private static void change(PartManager manager, Random random, int names) {
+        int kind = random.nextInt(10);
+        if (kind < 3) {
+            HashMap<String, Integer> children = new HashMap<>();
+            int count = 1 + random.nextInt(MAX_CHILDREN);
+            for (int i = 0; i < count; i++) {
+                children.put(name(random, names), 1 + random.nextInt(MAX_AMOUNT));
+            }
+            manager.addAssemblyWith(name(random, names), children);
+        } else if (kind < 6) {
+            manager.addPart(name(random, names), name(random, names), 1 + random.nextInt(MAX_AMOUNT));
+        } else if (kind < 8) {
+            manager.removePart(name(random, names), name(random, names), 1 + random.nextInt(MAX_CHILDREN));
+        } else {
+            manager.removeAssemblyWith(name(random, names));
+        }
+    }
+
+    /**
+     * Gives the answer or the error of one of the cached queries
+     */
+    private static String query(PartManager manager, int kind, String id) {
+        Result<String> result;
+        switch (kind) {
+            case 0:
+                result = manager.getComponentsOf(id);
+                break;
+            case 1:
+                result = manager.getAssembliesOf(id);
+                break;
+            default:
+                result = manager.printAssemblyWith(id);
+                break;
+        }
+
+        return result.isSuccessful() ? result.value : String.valueOf(result.error);
+    }
+
+    private static String name(Random random, int names) {
+        return Catalog.name(random.nextInt(names));
+    }
+}
@@ -0,0 +1,268 @@
+package com.cameloper.BlueprintZ;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Synthetic part catalog for benchmarks.
+ * <p>
+ * The parts are spread over {@code depth + 1} layers that grow by
+ * the mean fan-out from the top-level products down to the components.
+ * Each assembly has between {@code minWidth} and {@code maxWidth} children
+ * in the layer below, every count in between equally likely. With the
+ * probability {@code sharing} a child is any part of that layer, otherwise
+ * the next part no assembly has taken yet, so a higher ratio gives a
+ * catalog with more shared sub-assemblies.
+ */
+final class Catalog {
+    private static final int MAX_AMOUNT = 10;
+    private static final int LETTERS = 26;
+
+    private final int partCount;
+    private final int minWidth;
+    private final int maxWidth;
+    private final int depth;
+    private final double sharing;
+    private final String[][] layers;
+    /**
+     * Every assembly with its children, the deepest ones first
+     */
+    private final ArrayList<Assembly> assemblies = new ArrayList<>();
+    /**
+     * One parent of each part that has any
+     */
+    private final HashMap<String, String> parentOf = new HashMap<>();
+
+    /**
+     * Generates a catalog with the given shape
+     *
+     * @param partCount Approximate count of parts
+     * @param width     Count of children of each assembly
+     * @param depth     Count of assembly layers
+     * @param sharing   Probability that a child is shared, between 0 and 1
+     * @param seed      Seed of the random choices
+     */
+    Catalog(int partCount, int width, int depth, double sharing, long seed) {
+        this(partCount, width, width, depth, sharing, seed);
+    }
+
+    /**
+     * Generates a catalog with the given shape and a spread fan-out
+     *
+     * @param partCount Approximate count of parts
+     * @param minWidth  Least count of children of an assembly
+     * @param maxWidth  Highest count of children of an assembly
+     * @param depth     Count of assembly layers
+     * @param sharing   Probability that a child is shared, between 0 and 1
+     * @param seed      Seed of the random choices
+     */
+    Catalog(int partCount, int minWidth, int maxWidth, int depth, double sharing, long seed) {
+        this.partCount = partCount;
+        this.minWidth = minWidth;
+        this.maxWidth = maxWidth;
+        this.depth = depth;
+        this.sharing = sharing;
+        this.layers = new String[depth + 1][];
+
+        int[] sizes = layerSizes(partCount, (minWidth + maxWidth) / 2.0, depth);
+        int index = 0;
+        for (int d = 0; d <= depth; d++) {
+            layers[d] = new String[sizes[d]];
+            for (int i = 0; i < sizes[d]; i++) {
+                layers[d][i] = name(index++);
+            }
+        }
+
+        Random random = new Random(seed);
+        for (int d = depth - 1; d >= 0; d--) {
+            String[] below = layers[d + 1];
+            int nextUntaken = 0;
+            for (String id : layers[d]) {
+                int width = minWidth + random.nextInt(maxWidth - minWidth + 1);
+                HashMap<String, Integer> children = new HashMap<>();
+                while (children.size() < Math.min(width, below.length)) {
+                    String child;
+                    if (random.nextDouble() < sharing || nextUntaken >= below.length)
+                        child = below[random.nextInt(below.length)];
+                    else
+                        child = below[nextUntaken++];
+
+                    if (children.putIfAbsent(child, 1 + random.nextInt(MAX_AMOUNT)) == null)
+                        parentOf.putIfAbsent(child, id);
+                }
+
+                assemblies.add(new Assembly(id, children));
+            }
+        }
+    }
+
+    /**
+     * Gives a part name made of letters only for the given index
+     *
+     * @param index Index of the part
+     * @return Unique name of the part
+     */
+    static String name(int index) {
+        StringBuilder name = new StringBuilder();
+        int rest = index;
+        do {
+            name.append((char) ('A' + rest % LETTERS));
+            rest = rest / LETTERS - 1;
+        } while (rest >= 0);
+
+        return name.reverse().toString();
+    }
+
+    /**
+     * Adds every assembly of the catalog to the given manager
+     *
+     * @param manager Manager to fill
+     */
+    void applyTo(PartManager manager) {
+        for (Assembly assembly : assemblies) {
+            manager.addAssemblyWith(assembly.id, assembly.children);
+        }
+    }
+
+    /**
+     * Adds every assembly of the catalog to the given version directly
+     *
+     * @param list Version to fill
+     */
+    void applyTo(PartList list) {
+        for (Assembly assembly : assemblies) {
+            list.addIfNotPresent(assembly.id);
+            list.addAllIfNotPresent(assembly.children.keySet());
+            list.addChildren(assembly.id, assembly.children);
+        }
+    }
+
+    /**
+     * Gives the {@code addAssembly} command line of every assembly
+     *
+     * @return Command lines, the deepest assemblies first
+     */
+    ArrayList<String> commands() {
+        ArrayList<String> commands = new ArrayList<>();
+        for (Assembly assembly : assemblies) {
+            commands.add(assembly.command());
+        }
+
+        return commands;
+    }
+
+    /**
+     * Gives the parts of the given layer
+     *
+     * @param layer Layer from 0, the top-level products, to {@code depth}, the components
+     * @return Names of the parts
+     */
+    String[] layer(int layer) {
+        return layers[layer];
+    }
+
+    /**
+     * Gives a top-level product the given part is below of
+     *
+     * @param id Name of the part
+     * @return Name of the product
+     */
+    String productAbove(String id) {
+        String current = id;
+        while (parentOf.containsKey(current)) {
+            current = parentOf.get(current);
+        }
+
+        return current;
+    }
+
+    /**
+     * Gives the name of the assembly with given index
+     *
+     * @param index Index of the assembly, the deepest ones first
+     * @return Name of the assembly
+     */
+    String assemblyAt(int index) {
+        return assemblies.get(index).id;
+    }
+
+    /**
+     * Gives the children of the assembly with given index
+     *
+     * @param index Index of the assembly, the deepest ones first
+     * @return Amount of each child
+     */
+    HashMap<String, Integer> childrenOf(int index) {
+        return assemblies.get(index).children;
+    }
+
+    /**
+     * Getter of AssemblyCount
+     *
+     * @return Count of assemblies
+     */
+    int getAssemblyCount() {
+        return assemblies.size();
+    }
+
+    /**
+     * Getter of Depth
+     *
+     * @return Count of assembly layers
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String toString() {
+        String width = minWidth == maxWidth ? Integer.toString(minWidth) : minWidth + "-" + maxWidth;
+        return String.format("parts=%d width=%s depth=%d sharing=%.2f",
+                partCount, width, depth, sharing);
+    }
+
+    /**
+     * Splits the part count over the layers, each one {@code width} times
+     * as large as the one above
+     */
+    private static int[] layerSizes(int partCount, double width, int depth) {
+        double total = 0;
+        for (int d = 0; d <= depth; d++) {
+            total += Math.pow(width, d);
+        }
+
+        int[] sizes = new int[depth + 1];
+        for (int d = 0; d <= depth; d++) {
+            sizes[d] = Math.max(1, (int) Math.round(partCount * Math.pow(width, d) / total));
+        }
+
+        return sizes;
+    }
+
+    /**
+     * An assembly of the catalog with its children
+     */
+    private static final class Assembly {
+        final String id;
+        final HashMap<String, Integer> children;
+
+        Assembly(String id, HashMap<String, Integer> children) {
+            this.id = id;
+            this.children = children;
+        }
+
+        String command() {
+            StringBuilder command = new StringBuilder("addAssembly ").append(id).append('=');
+            boolean isFirst = true;
+            for (String child : children.keySet()) {
+                if (!isFirst)
+                    command.append(';');
+                command.append(children.get(child)).append(':').append(child);
+                isFirst = false;
+            }
+
+            return command.toString();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.cameloper.BlueprintZ;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Synthetic stream of command lines over a {@link Catalog}.
+ * <p>
+ * The stream first builds the catalog with one {@code addAssembly} line per
+ * assembly, the deepest ones first. Then it mixes reads and writes: with the
+ * probability {@code readRatio} a line is one of the four queries on a random
+ * part, otherwise it is an {@code addPart} from a part to one in the layer
+ * below, or a {@code removePart} that takes back the latest addition still
+ * in place. Edges always point to a deeper layer, so no line closes a cycle
+ * and the catalog keeps its shape over the whole stream.
+ */
+final class CommandStream {
+    private final Catalog catalog;
+    private final double readRatio;
+    private final Random random;
+
+    /**
+     * Default constructor of CommandStream
+     *
+     * @param catalog   Catalog to build and work on
+     * @param readRatio Probability that a line of the mix is a query, between 0 and 1
+     * @param seed      Seed of the random choices
+     */
+    CommandStream(Catalog catalog, double readRatio, long seed) {
+        this.catalog = catalog;
+        this.readRatio = readRatio;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Gives the lines building the catalog followed by the given count of mixed lines
+     *
+     * @param ops Count of mixed lines
+     * @return Command lines in the order to run them
+     */
+    ArrayList<String> generate(int ops) {
+        ArrayList<String> lines = catalog.commands();
+        ArrayDeque<String> additions = new ArrayDeque<>();
+        for (int i = 0; i < ops; i++) {
+            if (random.nextDouble() < readRatio) {
+                lines.add(query());
+            } else if (!additions.isEmpty() && random.nextBoolean()) {
+                lines.add("removePart " + additions.pop());
+            } else {
+                int layer = random.nextInt(catalog.getDepth());
+                String parent = partOf(layer);
+                String child = partOf(layer + 1);
+                lines.add("addPart " + parent + "+1:" + child);
+                additions.push(parent + "-1:" + child);
+            }
+        }
+
+        return lines;
+    }
+
+    private String query() {
+        switch (random.nextInt(4)) {
+            case 0:
+                return "printAssembly " + catalog.assemblyAt(random.nextInt(catalog.getAssemblyCount()));
+            case 1:
+                return "getAssemblies " + partOf(0);
+            case 2:
+                return "getComponents " + partOf(0);
+            default:
+                return "getWhereUsed " + usedPart();
+        }
+    }
+
+    /**
+     * Gives a random child of a random assembly, as not every part of a layer is used
+     */
+    private String usedPart() {
+        ArrayList<String> children = new ArrayList<>(
+                catalog.childrenOf(random.nextInt(catalog.getAssemblyCount())).keySet());
+        return children.get(random.nextInt(children.size()));
+    }
+
+    private String partOf(int layer) {
+        String[] parts = catalog.layer(layer);
+        return parts[random.nextInt(parts.length)];
+    }
+}
@@ -0,0 +1,82 @@
+package com.cameloper.BlueprintZ;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Replays a synthetic {@link CommandStream} in-process and reports the latency of each command.
+ * <p>
+ * Every line runs through {@link Main#go(String, OutputSink)} against the main
+ * {@link PartManager}, exactly as if it had been typed, and its answer is
+ * discarded. The report is the one of {@link Metrics}, with the percentiles
+ * of every command. With {@code --emit} the stream is written to the given
+ * file instead, to be run by {@code Main --script} or piped into a server.
+ * <p>
+ * Usage: {@code ReplayDriver [--parts 10000] [--min-width 2] [--max-width 6] [--depth 6]
+ * [--sharing 0.3] [--reads 0.8] [--ops 100000] [--seed 42] [--emit path]}
+ */
+public final class ReplayDriver {
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Keeps the answers alive, so that they are not optimized away
+     */
+    private static volatile int blackhole;
+
+    private ReplayDriver() {
+    }
+
+    /**
+     * Generates the stream and replays or writes it
+     *
+     * @param args Options, see the class description
+     * @throws IOException if the stream could not be written
+     */
+    public static void main(String[] args) throws IOException {
+        HashMap<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+
+        long seed = Long.parseLong(options.getOrDefault("--seed", "42"));
+        Catalog catalog = new Catalog(Integer.parseInt(options.getOrDefault("--parts", "10000")),
+                Integer.parseInt(options.getOrDefault("--min-width", "2")),
+                Integer.parseInt(options.getOrDefault("--max-width", "6")),
+                Integer.parseInt(options.getOrDefault("--depth", "6")),
+                Double.parseDouble(options.getOrDefault("--sharing", "0.3")), seed);
+        CommandStream stream = new CommandStream(catalog,
+                Double.parseDouble(options.getOrDefault("--reads", "0.8")), seed);
+        ArrayList<String> lines = stream.generate(Integer.parseInt(options.getOrDefault("--ops", "100000")));
+
+        String emitPath = options.get("--emit");
+        if (emitPath != null) {
+            Files.write(Paths.get(emitPath), lines);
+            System.out.printf("Wrote %d commands of %s to %s%n", lines.size(), catalog, emitPath);
+            return;
+        }
+
+        OutputSink sink = new OutputSink() {
+            @Override
+            public void printLine(String line) {
+                blackhole ^= line.length();
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+
+        long start = System.nanoTime();
+        for (String line : lines) {
+            Main.go(line, sink);
+        }
+        double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+
+        System.out.printf("Replayed %d commands of %s in %.3f s (%.0f commands/sec)%n",
+                lines.size(), catalog, seconds, lines.size() / seconds);
+        System.out.println(Metrics.MAIN.print(PartManager.MAIN));
+    }
+}
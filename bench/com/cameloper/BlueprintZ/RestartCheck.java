@@ -0,0 +1,122 @@
+package com.cameloper.BlueprintZ;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Checks that a restarted program answers exactly like the run before it.
+ * <p>
+ * Each check runs the program twice as a separate process on the same
+ * {@code --snapshot} and {@code --journal} files. The first run executes a
+ * command stream and then the queries, the second one only the queries. Both
+ * must give the same answers. The first check is a short fixed stream, the
+ * second a {@link CommandStream} with a journal limit low enough to compact
+ * it several times.
+ * <p>
+ * Usage: {@code RestartCheck [--parts 2000] [--ops 5000] [--journal-limit 4096] [--seed 42]}
+ */
+public final class RestartCheck {
+    private static final String MAIN_CLASS = "com.cameloper.BlueprintZ.Main";
+
+    private RestartCheck() {
+    }
+
+    /**
+     * Runs every check and exits with status 1 if any of them failed
+     *
+     * @param args Options, see the class description
+     * @throws IOException          if the files of a run could not be written or read
+     * @throws InterruptedException if waiting for a run was interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        HashMap<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+
+        long seed = Long.parseLong(options.getOrDefault("--seed", "42"));
+        String journalLimit = options.getOrDefault("--journal-limit", "4096");
+
+        boolean isPassed = check("fixed", Arrays.asList("addAssembly A=2:b;3:c", "addPart A+1:b"),
+                Arrays.asList("printAssembly A", "getComponents A"), new ArrayList<>());
+
+        Catalog catalog = new Catalog(Integer.parseInt(options.getOrDefault("--parts", "2000")),
+                2, 6, 5, 0.3, seed);
+        ArrayList<String> commands = new CommandStream(catalog, 0.2, seed)
+                .generate(Integer.parseInt(options.getOrDefault("--ops", "5000")));
+        ArrayList<String> queries = new ArrayList<>();
+        for (int i = 0; i < catalog.getAssemblyCount(); i++) {
+            queries.add("printAssembly " + catalog.assemblyAt(i));
+        }
+        for (String product : catalog.layer(0)) {
+            queries.add("getComponents " + product);
+        }
+        isPassed &= check(catalog.toString(), commands, queries, Arrays.asList("--journal-limit", journalLimit));
+
+        if (!isPassed)
+            System.exit(1);
+    }
+
+    /**
+     * Runs the commands and queries, restarts and runs the queries again
+     *
+     * @return true if both runs answered the queries alike
+     */
+    private static boolean check(String name, List<String> commands, List<String> queries, List<String> flags)
+            throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("restart");
+        ArrayList<String> arguments = new ArrayList<>(flags);
+        arguments.addAll(Arrays.asList("--snapshot", directory.resolve("graph.snapshot").toString(),
+                "--journal", directory.resolve("graph.journal").toString()));
+
+        ArrayList<String> firstInput = new ArrayList<>(commands);
+        firstInput.addAll(queries);
+        List<String> first = run(arguments, firstInput, directory);
+        List<String> expected = first.subList(first.size() - queries.size(), first.size());
+        List<String> actual = run(arguments, queries, directory);
+
+        for (int i = 0; i < queries.size(); i++) {
+            if (!expected.get(i).equals(actual.get(i))) {
+                System.out.printf("%-50s MISMATCH %s: %s before, %s after the restart%n",
+                        name, queries.get(i), expected.get(i), actual.get(i));
+                return false;
+            }
+        }
+
+        System.out.printf("%-50s ok (%d queries)%n", name, queries.size());
+        return true;
+    }
+
+    /**
+     * Runs the program in a new process on the given lines
+     *
+     * @return Lines the program printed
+     */
+    private static List<String> run(List<String> arguments, List<String> lines, Path directory)
+            throws IOException, InterruptedException {
+        Path input = directory.resolve("input.txt");
+        Path output = directory.resolve("output.txt");
+        Files.write(input, lines);
+
+        ArrayList<String> command = new ArrayList<>(Arrays.asList(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"), MAIN_CLASS));
+        command.addAll(arguments);
+
+        Process process = new ProcessBuilder(command)
+                .redirectInput(input.toFile())
+                .redirectOutput(output.toFile())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        if (process.waitFor() != 0)
+            throw new IOException("run exited with status " + process.exitValue());
+
+        return Files.readAllLines(output);
+    }
+}
@@ -0,0 +1,42 @@
+package com.cameloper.BlueprintZ;
+
+import edu.kit.informatik.Terminal;
+
+/**
+ * Collects lines and prints them to the terminal in batches,
+ * once the given buffer size is reached or on an explicit flush
+ */
+class BufferedOutputSink implements OutputSink {
+    private static final char LINE_SEPARATOR = '\n';
+
+    private final StringBuilder buffer;
+    private final int flushThreshold;
+
+    /**
+     * Default constructor of BufferedOutputSink
+     *
+     * @param flushThreshold Count of buffered characters that triggers a flush
+     */
+    BufferedOutputSink(int flushThreshold) {
+        this.buffer = new StringBuilder(flushThreshold + flushThreshold / 4);
+        this.flushThreshold = flushThreshold;
+    }
+
+    @Override
+    public void printLine(String line) {
+        buffer.append(line).append(LINE_SEPARATOR);
+        if (buffer.length() >= flushThreshold)
+            flush();
+    }
+
+    @Override
+    public void flush() {
+        if (buffer.length() == 0)
+            return;
+
+        // Terminal terminates the last line itself
+        buffer.setLength(buffer.length() - 1);
+        Terminal.printLine(buffer);
+        buffer.setLength(0);
+    }
+}
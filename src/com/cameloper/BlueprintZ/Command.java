@@ -21,6 +21,10 @@ enum Command {
      * Lists all child-components of an assembly
      */
     GET_COMPONENTS("getComponents"),
+    /**
+     * Lists all assemblies that contain a part directly or indirectly
+     */
+    GET_WHERE_USED("getWhereUsed"),
     /**
      * Adds a new part
      */
@@ -29,6 +33,35 @@ enum Command {
      * Removes a specific part
      */
     REMOVE_PART("removePart"),
+    /**
+     * Opens a transaction. Queries keep answering from the last committed
+     * part graph until it is committed.
+     */
+    BEGIN("begin"),
+    /**
+     * Checks and applies every change of the open transaction
+     */
+    COMMIT("commit"),
+    /**
+     * Drops every change of the open transaction
+     */
+    ROLLBACK("rollback"),
+    /**
+     * Adds every assembly of a file of addAssembly lines as a unit
+     */
+    IMPORT("import"),
+    /**
+     * Writes the part graph to a snapshot file
+     */
+    SAVE("save"),
+    /**
+     * Replaces the part graph with the one in a snapshot file
+     */
+    LOAD("load"),
+    /**
+     * Prints the metrics of the commands and the size of the part graph
+     */
+    STATS("stats"),
     /**
      * Quits the app
      */
@@ -46,52 +79,81 @@ enum Command {
     }
 
     /**
-     * Default builder for Command
+     * Getter of RawValue
      *
-     * @param input raw input string
-     * @return If exists, a command case with matching raw string
+     * @return Name of the command as typed by the user
      */
-    static Command build(String input) {
-        for (Command cmd : Command.values()) {
-            if (cmd.rawValue.equals(input))
-                return cmd;
-        }
-
-        return null;
+    String getRawValue() {
+        return rawValue;
     }
 
     /**
-     * Gives the obligatory regex literal for this command
+     * Says whether this command changes the part graph or
+     * the open transaction and thus has to be journaled
      *
-     * @return Regex literal
+     * @return true if the command changes the part graph, otherwise false
      */
-    String getRegex() {
-        String pnr = Main.Defaults.PART_NAME_REGEX;
-        String ar = Main.Defaults.AMOUNT_REGEX;
-        String naSL = Main.Defaults.NAME_AMOUNT_SEPARATOR;
+    boolean isMutating() {
         switch (this) {
-            case ADD_PART:
-                return pnr + "\\" + Main.Defaults.ADD_LITERAL + ar + naSL + pnr;
-            case REMOVE_PART:
-                return pnr + Main.Defaults.SUBTRACT_LITERAL + ar + naSL + pnr;
             case ADD_ASSEMBLY:
-                return String.format("%s%s(%s%s%s%s)*(%s%s%s)",
-                        pnr,
-                        Main.Defaults.SETTER_LITERAL,
-                        ar,
-                        naSL,
-                        pnr,
-                        Main.Defaults.PART_SEPARATOR,
-                        ar,
-                        naSL,
-                        pnr);
-            case GET_ASSEMBLIES:
-            case GET_COMPONENTS:
-            case PRINT_ASSEMBLY:
             case REMOVE_ASSEMBLY:
-                return pnr;
+            case ADD_PART:
+            case REMOVE_PART:
+            case BEGIN:
+            case COMMIT:
+            case ROLLBACK:
+                return true;
             default:
-                return "";
+                return false;
+        }
+    }
+
+    /**
+     * Says whether a client of the server may run this command.
+     * A transaction belongs to the whole part graph rather than to a
+     * connection, so other clients would write into it unknowingly.
+     * Files are only read and written by the local user, since any
+     * process able to connect could otherwise reach every file of the program.
+     *
+     * @return true if the command is available in server mode, otherwise false
+     */
+    boolean isServable() {
+        switch (this) {
+            case BEGIN:
+            case COMMIT:
+            case ROLLBACK:
+            case IMPORT:
+            case SAVE:
+            case LOAD:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Says whether this command changes the part graph
+     * from the contents of a file
+     *
+     * @return true if the command reads the part graph from a file, otherwise false
+     */
+    boolean isReadingFile() {
+        return this == IMPORT || this == LOAD;
+    }
+
+    /**
+     * Default builder for Command
+     *
+     * @param input  raw input string
+     * @param length length of the command name at the start of input
+     * @return If exists, a command case with matching raw string
+     */
+    static Command build(String input, int length) {
+        for (Command cmd : Command.values()) {
+            if (cmd.rawValue.length() == length && input.startsWith(cmd.rawValue))
+                return cmd;
         }
+
+        return null;
     }
-}
\ No newline at end of file
+}
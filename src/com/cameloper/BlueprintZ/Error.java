@@ -1,7 +1,7 @@
 package com.cameloper.BlueprintZ;
 
 class Error {
-    private static final String REPLACEMENT_CHAR = "\\$p";
+    private static final String REPLACEMENT_CHAR = "$p";
 
     private final Type type;
     private String replacement;
@@ -26,9 +26,19 @@ class Error {
         this.type = type;
     }
 
+    /**
+     * Getter of Type
+     *
+     * @return The main cause of error
+     */
+    Type getType() {
+        return type;
+    }
+
     @Override
     public String toString() {
-        return type.message().replaceAll(REPLACEMENT_CHAR, replacement);
+        String message = type.message();
+        return replacement == null ? message : message.replace(REPLACEMENT_CHAR, replacement);
     }
 
     enum Type {
@@ -80,6 +90,30 @@ class Error {
          * The parent part does not have enough of child-part
          */
         NO_ENOUGH_PARTS,
+        /**
+         * The file with given path could not be read
+         */
+        FILE_NOT_READABLE,
+        /**
+         * The file with given path could not be written
+         */
+        FILE_NOT_WRITABLE,
+        /**
+         * The server could not listen on the given port
+         */
+        PORT_NOT_AVAILABLE,
+        /**
+         * A transaction has been opened and not committed or rolled back yet
+         */
+        TRANSACTION_ALREADY_OPEN,
+        /**
+         * There is no open transaction to commit or roll back
+         */
+        NO_TRANSACTION,
+        /**
+         * The command cannot be run by a client of the server
+         */
+        NOT_SERVABLE,
         /**
          * Something went wrong
          */
@@ -111,6 +145,18 @@ class Error {
                     return "the part with given ID \"$p\" is a component.";
                 case NO_ENOUGH_PARTS:
                     return "there aren't $p child-parts in given assembly.";
+                case FILE_NOT_READABLE:
+                    return "the file \"$p\" could not be read.";
+                case FILE_NOT_WRITABLE:
+                    return "the file \"$p\" could not be written.";
+                case PORT_NOT_AVAILABLE:
+                    return "the port $p could not be opened.";
+                case TRANSACTION_ALREADY_OPEN:
+                    return "a transaction is already open.";
+                case NO_TRANSACTION:
+                    return "there is no open transaction.";
+                case NOT_SERVABLE:
+                    return "the command \"$p\" is not available in server mode.";
                 default:
                     return "something happened. No idea tbh.";
             }
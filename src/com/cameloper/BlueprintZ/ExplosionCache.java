@@ -0,0 +1,227 @@
+package com.cameloper.BlueprintZ;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the exploded child totals of assemblies and the rendered
+ * answers of the queries on them until one of their descendants changes.
+ * <p>
+ * Readers look up and fill in entries concurrently, each for the
+ * {@link PartList} version it reads. Every entry is tagged with the version
+ * it was computed for, and every invalidation with the version that made it.
+ * An entry is only handed out to a reader whose version lies after the last
+ * change below the part, so a reader that races with a writer never gets
+ * or leaves behind totals of another version.
+ * <p>
+ * Only a reader of the latest version fills in entries, and an invalidation
+ * stops at parts that changed after the newest entry was filled in: every
+ * entry of such a part and of its ancestors is already too old to be handed
+ * out. Building a part graph without querying it thus invalidates next to nothing.
+ */
+class ExplosionCache {
+    private final EnumMap<Part.Type, ConcurrentHashMap<Integer, Entry<HashMap<String, Integer>>>> entries =
+            new EnumMap<>(Part.Type.class);
+    /**
+     * Rendered answers of each query command, only present for the commands that were cached
+     */
+    private final ConcurrentHashMap<Command, ConcurrentHashMap<Integer, Entry<String>>> renderings =
+            new ConcurrentHashMap<>();
+    /**
+     * Version of the latest change below each part
+     */
+    private final ConcurrentHashMap<Integer, Long> changedAt = new ConcurrentHashMap<>();
+    private volatile long clearedAt;
+    /**
+     * Version of the latest invalidation. Entries of older versions are not filled in.
+     */
+    private volatile long invalidatedAt;
+    /**
+     * Newest version any entry was filled in for
+     */
+    private final AtomicLong filledAt = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Empty constructor for {@link ExplosionCache}
+     */
+    ExplosionCache() {
+        for (Part.Type type : Part.Type.values()) {
+            entries.put(type, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Gives the cached totals of the given type for the assembly with given key
+     *
+     * @param key     Key of the assembly
+     * @param type    Type of the counted parts
+     * @param version Version of the {@link PartList} the totals are needed for
+     * @return Cached totals, if present and valid for the version
+     */
+    HashMap<String, Integer> get(int key, Part.Type type, long version) {
+        return lookUp(entries.get(type), key, version);
+    }
+
+    /**
+     * Caches the totals of the given type for the assembly with given key.
+     * The totals must not be modified afterwards.
+     *
+     * @param key     Key of the assembly
+     * @param type    Type of the counted parts
+     * @param totals  Total count of each part with type
+     * @param version Version of the {@link PartList} the totals were computed for
+     */
+    void put(int key, Part.Type type, HashMap<String, Integer> totals, long version) {
+        if (isFillable(key, version))
+            entries.get(type).put(key, new Entry<>(version, totals));
+    }
+
+    /**
+     * Gives the cached answer of the given query on the assembly with given key
+     *
+     * @param key     Key of the assembly
+     * @param command Command of the query
+     * @param version Version of the {@link PartList} the answer is needed for
+     * @return Cached answer, if present and valid for the version
+     */
+    String getRendering(int key, Command command, long version) {
+        // Each query looks its answer up first, so only this lookup is counted
+        String rendering = lookUp(renderings.computeIfAbsent(command, unused -> new ConcurrentHashMap<>()),
+                key, version);
+        if (rendering == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+
+        return rendering;
+    }
+
+    /**
+     * Caches the answer of the given query on the assembly with given key
+     *
+     * @param key       Key of the assembly
+     * @param command   Command of the query
+     * @param rendering Answer of the query
+     * @param version   Version of the {@link PartList} the answer was built for
+     */
+    void putRendering(int key, Command command, String rendering, long version) {
+        if (isFillable(key, version))
+            renderings.computeIfAbsent(command, unused -> new ConcurrentHashMap<>())
+                    .put(key, new Entry<>(version, rendering));
+    }
+
+    /**
+     * Drops the entries of the given parts and of all their ancestors
+     *
+     * @param keys Keys of the parts whose children changed
+     * @param list Version of the part graph the changes were made in
+     */
+    void invalidate(Collection<Integer> keys, PartList list) {
+        invalidatedAt = list.getVersion();
+        long newestFill = filledAt.get();
+
+        HashSet<Integer> visited = new HashSet<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>(keys);
+        while (!queue.isEmpty()) {
+            int key = queue.poll();
+            if (!visited.add(key) || lastChangeOf(key) > newestFill)
+                continue;
+
+            changedAt.put(key, list.getVersion());
+            for (ConcurrentHashMap<Integer, Entry<HashMap<String, Integer>>> typeEntries : entries.values()) {
+                typeEntries.remove(key);
+            }
+            for (ConcurrentHashMap<Integer, Entry<String>> commandRenderings : renderings.values()) {
+                commandRenderings.remove(key);
+            }
+
+            Part part = list.getPartWith(key);
+            if (part == null)
+                continue;
+
+            IntIntMap parents = part.getParents();
+            for (int slot = parents.next(-1); slot >= 0; slot = parents.next(slot)) {
+                queue.add(parents.keyAt(slot));
+            }
+        }
+    }
+
+    /**
+     * Drops every entry
+     *
+     * @param version Version of the {@link PartList} that replaced the whole part graph
+     */
+    void clear(long version) {
+        clearedAt = version;
+        invalidatedAt = version;
+        for (ConcurrentHashMap<Integer, Entry<HashMap<String, Integer>>> typeEntries : entries.values()) {
+            typeEntries.clear();
+        }
+        for (ConcurrentHashMap<Integer, Entry<String>> commandRenderings : renderings.values()) {
+            commandRenderings.clear();
+        }
+    }
+
+    /**
+     * Getter of Hits
+     *
+     * @return How many queries found their answer cached
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Getter of Misses
+     *
+     * @return How many queries found no cached answer
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    private <T> T lookUp(ConcurrentHashMap<Integer, Entry<T>> values, int key, long version) {
+        Entry<T> entry = values.get(key);
+        long since = lastChangeOf(key);
+        if (entry == null || since > version || entry.version < since)
+            return null;
+
+        return entry.value;
+    }
+
+    /**
+     * Says whether an entry of the given version may be filled in. The fill is
+     * announced before the check, so that an invalidation running at the same
+     * time either sees it and walks on or has already been seen here.
+     */
+    private boolean isFillable(int key, long version) {
+        filledAt.accumulateAndGet(version, Math::max);
+        return version >= invalidatedAt && lastChangeOf(key) <= version;
+    }
+
+    private long lastChangeOf(int key) {
+        return Math.max(changedAt.getOrDefault(key, 0L), clearedAt);
+    }
+
+    /**
+     * Cached value together with the version it was computed for
+     */
+    private static final class Entry<T> {
+        final long version;
+        final T value;
+
+        Entry(long version, T value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.cameloper.BlueprintZ;
+
+import java.util.Arrays;
+
+/**
+ * Map from non-negative int keys to int values without boxing.
+ * Uses open addressing with linear probing; entries are iterated
+ * by slot with {@code next()}, {@code keyAt()} and {@code valueAt()}.
+ */
+final class IntIntMap {
+    private static final int EMPTY = -1;
+    private static final int MIN_CAPACITY = 4;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * Empty constructor for {@link IntIntMap}
+     */
+    IntIntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates an empty map that holds the given count of entries without growing
+     *
+     * @param expectedSize Expected count of entries
+     */
+    IntIntMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Creates a new {@link IntIntMap} object using the entries of given one
+     *
+     * @param origin The map to be cloned
+     */
+    IntIntMap(IntIntMap origin) {
+        this.keys = origin.keys.clone();
+        this.values = origin.values.clone();
+        this.size = origin.size;
+    }
+
+    /**
+     * Getter of Size
+     *
+     * @return Count of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Says whether there are no entries
+     *
+     * @return true if the map is empty, otherwise false
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Says whether there is an entry with given key
+     *
+     * @param key Key to check
+     * @return true if such an entry exists, otherwise false
+     */
+    boolean containsKey(int key) {
+        return slotOf(key) >= 0;
+    }
+
+    /**
+     * Gives the value of the entry with given key
+     *
+     * @param key Key of the entry
+     * @return Value of the entry, 0 if there is none
+     */
+    int get(int key) {
+        int slot = slotOf(key);
+        return slot < 0 ? 0 : values[slot];
+    }
+
+    /**
+     * Sets the value of the entry with given key
+     *
+     * @param key   Key of the entry
+     * @param value New value
+     */
+    void put(int key, int value) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            values[slot] = value;
+            return;
+        }
+
+        insert(key, value);
+    }
+
+    /**
+     * Adds the given delta to the value of the entry with given key.
+     * A missing entry counts as 0.
+     *
+     * @param key   Key of the entry
+     * @param delta Value to add
+     * @return New value of the entry
+     */
+    int add(int key, int delta) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            values[slot] += delta;
+            return values[slot];
+        }
+
+        insert(key, delta);
+        return delta;
+    }
+
+    /**
+     * Removes the entry with given key
+     *
+     * @param key Key of the entry
+     * @return true if removal happened, otherwise false
+     */
+    boolean remove(int key) {
+        int gap = slotOf(key);
+        if (gap < 0)
+            return false;
+
+        // Shift the following entries back, so that no probe sequence is broken
+        int mask = keys.length - 1;
+        int slot = (gap + 1) & mask;
+        while (keys[slot] != EMPTY) {
+            int ideal = indexFor(keys[slot], mask);
+            if (((slot - ideal) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        keys[gap] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes every entry
+     */
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Gives the slot of the entry after the given slot.
+     * Start with -1 to get the first entry.
+     *
+     * @param slot Slot of the current entry
+     * @return Slot of the next entry, or -1 if there is none
+     */
+    int next(int slot) {
+        for (int i = slot + 1; i < keys.length; i++) {
+            if (keys[i] != EMPTY)
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gives the key of the entry in given slot
+     *
+     * @param slot Slot given by {@code next()}
+     * @return Key of the entry
+     */
+    int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Gives the value of the entry in given slot
+     *
+     * @param slot Slot given by {@code next()}
+     * @return Value of the entry
+     */
+    int valueAt(int slot) {
+        return values[slot];
+    }
+
+    private int slotOf(int key) {
+        int mask = keys.length - 1;
+        for (int slot = indexFor(key, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return slot;
+        }
+
+        return -1;
+    }
+
+    private void insert(int key, int value) {
+        if ((size + 1) * 3 > keys.length * 2)
+            rehash(keys.length * 2);
+
+        int mask = keys.length - 1;
+        int slot = indexFor(key, mask);
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY)
+                continue;
+
+            int slot = indexFor(oldKeys[i], mask);
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (expectedSize * 3 > capacity * 2) {
+            capacity *= 2;
+        }
+
+        return capacity;
+    }
+
+    private static int indexFor(int key, int mask) {
+        int hash = key * GOLDEN_RATIO;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,224 @@
+package com.cameloper.BlueprintZ;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of every successful mutating command.
+ * <p>
+ * Each record is a command line as it was entered. Every record is
+ * written to the file before its command is answered, so it survives a
+ * crash of the process. Forcing it to disk is done for a group of
+ * records at once, and in the background after a short delay, so a
+ * slow writer never leaves a record unforced for long. The first line names the checksum of the snapshot the
+ * journal continues from. Once the journal grows past its limit,
+ * the part graph is written as a new snapshot and the journal starts over.
+ * A journal whose checksum does not match the snapshot has already been
+ * folded into it, so a crash in between never applies a record twice.
+ * <p>
+ * The changes of a transaction are journaled one by one between its begin
+ * and commit records. The journal is not compacted while a transaction is
+ * open, since the snapshot only holds the committed part graph.
+ */
+final class Journal {
+    private static final String HEADER_PREFIX = "#snapshot ";
+    private static final String NO_SNAPSHOT = "-";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final char RECORD_SEPARATOR = '\n';
+
+    private final PartManager manager;
+    private final Path path;
+    private final Path snapshotPath;
+    private final int syncInterval;
+    private final long compactionThreshold;
+    private int pendingCount;
+    private FileChannel channel;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Default constructor of Journal
+     *
+     * @param manager             Manager whose part graph is journaled
+     * @param path                Path of the journal file. The snapshot is kept next to it.
+     * @param syncInterval        Count of records that are forced to disk together at most
+     * @param compactionThreshold Size in bytes that makes the journal fold into a snapshot
+     */
+    Journal(PartManager manager, Path path, int syncInterval, long compactionThreshold) {
+        this.manager = manager;
+        this.path = path;
+        this.snapshotPath = Paths.get(path + SNAPSHOT_SUFFIX);
+        this.syncInterval = syncInterval;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Loads the snapshot, passes each record of a matching journal
+     * to the given action and opens the journal for appending.
+     * A torn record at the end is dropped. A journal that does not exist
+     * yet starts from the part graph the manager holds already.
+     *
+     * @param replay Action that executes a recorded command line
+     * @throws IOException if the snapshot or the journal could not be read or written
+     */
+    void recover(Consumer<String> replay) throws IOException {
+        if (!Files.exists(path)) {
+            // The snapshot is written before the journal exists, so a crash in between only starts over
+            Result<Void> result = manager.save(snapshotPath.toString());
+            if (!result.isSuccessful())
+                throw new IOException(result.error.toString());
+        } else if (Files.exists(snapshotPath)) {
+            Result<Void> result = manager.load(snapshotPath.toString());
+            if (!result.isSuccessful())
+                throw new IOException(result.error.toString());
+        }
+
+        String checksum = checksumOfSnapshot();
+        long validLength = 0;
+        if (Files.exists(path)) {
+            byte[] content = Files.readAllBytes(path);
+            int headerEnd = nextSeparator(content, 0);
+            String header = headerEnd < 0 ? "" : new String(content, 0, headerEnd, StandardCharsets.US_ASCII);
+            if (header.equals(HEADER_PREFIX + checksum)) {
+                int start = headerEnd + 1;
+                for (int end = nextSeparator(content, start); end >= 0; end = nextSeparator(content, start)) {
+                    replay.accept(new String(content, start, end - start, StandardCharsets.US_ASCII));
+                    start = end + 1;
+                }
+                validLength = start;
+            }
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        if (validLength == 0)
+            writeHeader(checksum);
+    }
+
+    /**
+     * Forces the written records to disk periodically in the background,
+     * so that none stays unforced for longer than the given delay
+     *
+     * @param millis Milliseconds between two syncs
+     */
+    synchronized void syncEvery(long millis) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sync();
+            } catch (IOException ex) {
+                // The records are forced again on the next sync
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the given command line to the journal. Every full group is forced
+     * to disk, and the journal is compacted once it passes its limit outside of a transaction.
+     *
+     * @param command Command line of a successful mutating command
+     * @throws IOException if the journal could not be written
+     */
+    synchronized void append(String command) throws IOException {
+        write(command + RECORD_SEPARATOR);
+        if (++pendingCount < syncInterval)
+            return;
+
+        sync();
+        if (channel.size() > compactionThreshold && !manager.isInTransaction())
+            compact();
+    }
+
+    /**
+     * Forces every written record to disk
+     *
+     * @throws IOException if the journal could not be written
+     */
+    synchronized void sync() throws IOException {
+        if (pendingCount == 0 || !channel.isOpen())
+            return;
+
+        channel.force(false);
+        pendingCount = 0;
+    }
+
+    /**
+     * Writes the current part graph as the new snapshot and empties the journal
+     *
+     * @throws IOException if the snapshot or the journal could not be written
+     */
+    synchronized void compact() throws IOException {
+        sync();
+
+        // Replacing the snapshot is the commit point: the old journal no longer matches it
+        Result<Void> result = manager.save(snapshotPath.toString());
+        if (!result.isSuccessful())
+            throw new IOException(result.error.toString());
+
+        channel.truncate(0);
+        channel.position(0);
+        writeHeader(checksumOfSnapshot());
+    }
+
+    /**
+     * Forces every pending record to disk and closes the journal
+     *
+     * @throws IOException if the journal could not be written
+     */
+    synchronized void close() throws IOException {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+
+        sync();
+        channel.close();
+    }
+
+    private void writeHeader(String checksum) throws IOException {
+        write(HEADER_PREFIX + checksum + RECORD_SEPARATOR);
+        channel.force(true);
+    }
+
+    private void write(String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private String checksumOfSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath))
+            return NO_SNAPSHOT;
+
+        CRC32 crc = new CRC32();
+        try (FileChannel snapshot = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            crc.update(snapshot.map(FileChannel.MapMode.READ_ONLY, 0, snapshot.size()));
+        }
+
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static int nextSeparator(byte[] content, int start) {
+        for (int i = start; i < content.length; i++) {
+            if (content[i] == RECORD_SEPARATOR)
+                return i;
+        }
+
+        return -1;
+    }
+}
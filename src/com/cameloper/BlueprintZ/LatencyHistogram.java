@@ -0,0 +1,111 @@
+package com.cameloper.BlueprintZ;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets.
+ * <p>
+ * Each power of two is split into {@code SUB_BUCKETS} equally wide buckets,
+ * so a recorded value is off by less than one eighth of itself while the
+ * whole range of {@code long} fits into a few hundred buckets. Recording
+ * is a single atomic increment, so any count of threads may record at once.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one latency
+     *
+     * @param nanos Latency in nanoseconds
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Getter of Count
+     *
+     * @return Count of recorded latencies
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Getter of Max
+     *
+     * @return Highest recorded latency in nanoseconds
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gives the mean of the recorded latencies
+     *
+     * @return Mean latency in nanoseconds, or 0 if none was recorded
+     */
+    double mean() {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : (double) sum.sum() / recorded;
+    }
+
+    /**
+     * Gives the latency that the given share of the recorded latencies do not exceed
+     *
+     * @param quantile Share between 0 and 1
+     * @return Upper bound of the bucket holding the quantile in nanoseconds
+     */
+    long valueAt(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highestValueOf(i), getMax());
+        }
+
+        return 0;
+    }
+
+    /**
+     * Values below {@code SUB_BUCKETS} have a bucket each. Any higher value
+     * goes to the bucket of its highest {@code SUB_BUCKET_BITS + 1} bits.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -2,12 +2,47 @@ package com.cameloper.BlueprintZ;
 
 import edu.kit.informatik.Terminal;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+
 public class Main {
+    private static final String SCRIPT_FLAG = "--script";
+    private static final String BUFFERED_FLAG = "--buffered";
+    private static final String SNAPSHOT_FLAG = "--snapshot";
+    private static final String JOURNAL_FLAG = "--journal";
+    private static final String JOURNAL_SYNC_FLAG = "--journal-sync";
+    private static final String JOURNAL_SYNC_DELAY_FLAG = "--journal-sync-delay";
+    private static final String JOURNAL_LIMIT_FLAG = "--journal-limit";
+    private static final String SERVER_FLAG = "--server";
+    private static final String STATS_FILE_FLAG = "--stats-file";
+    private static final String STATS_INTERVAL_FLAG = "--stats-interval";
+    private static final String PIPELINE_FLAG = "--pipeline";
+    private static final int DEFAULT_JOURNAL_SYNC_INTERVAL = 32;
+    private static final long DEFAULT_JOURNAL_SYNC_DELAY = 100;
+    private static final long DEFAULT_JOURNAL_LIMIT = 64L << 20;
+    private static final long DEFAULT_STATS_INTERVAL = 60;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Destination of every printed line
+     */
+    private static OutputSink output = new TerminalOutputSink();
+
+    /**
+     * Journal of the mutating commands, if enabled
+     */
+    private static Journal journal;
+    private static String journalPath;
 
     /**
-     * Decides whether the program should continue listening for commands
+     * Whether the command lines come from clients of the server
      */
-    static boolean isListening = true;
+    private static boolean isServing;
 
     /**
      * The method that will be called with terminal arguments
@@ -15,83 +50,367 @@ public class Main {
      * @param args System arguments
      */
     public static void main(String[] args) {
-        loop();
+        String scriptPath = null;
+        String snapshotPath = null;
+        int journalSyncInterval = DEFAULT_JOURNAL_SYNC_INTERVAL;
+        long journalSyncDelay = DEFAULT_JOURNAL_SYNC_DELAY;
+        long journalLimit = DEFAULT_JOURNAL_LIMIT;
+        int serverPort = 0;
+        String statsPath = null;
+        long statsInterval = DEFAULT_STATS_INTERVAL;
+        boolean isPipelined = false;
+        for (int i = 0; i < args.length; i++) {
+            if (SCRIPT_FLAG.equals(args[i]) && i + 1 < args.length)
+                scriptPath = args[++i];
+            else if (SNAPSHOT_FLAG.equals(args[i]) && i + 1 < args.length)
+                snapshotPath = args[++i];
+            else if (JOURNAL_FLAG.equals(args[i]) && i + 1 < args.length)
+                journalPath = args[++i];
+            else if (JOURNAL_SYNC_FLAG.equals(args[i]) && i + 1 < args.length)
+                journalSyncInterval = (int) parsePositive(args[++i], journalSyncInterval);
+            else if (JOURNAL_SYNC_DELAY_FLAG.equals(args[i]) && i + 1 < args.length)
+                journalSyncDelay = parsePositive(args[++i], journalSyncDelay);
+            else if (JOURNAL_LIMIT_FLAG.equals(args[i]) && i + 1 < args.length)
+                journalLimit = parsePositive(args[++i], journalLimit);
+            else if (SERVER_FLAG.equals(args[i]) && i + 1 < args.length)
+                serverPort = (int) parsePositive(args[++i], serverPort);
+            else if (STATS_FILE_FLAG.equals(args[i]) && i + 1 < args.length)
+                statsPath = args[++i];
+            else if (STATS_INTERVAL_FLAG.equals(args[i]) && i + 1 < args.length)
+                statsInterval = parsePositive(args[++i], statsInterval);
+            else if (BUFFERED_FLAG.equals(args[i]))
+                output = new BufferedOutputSink(OUTPUT_BUFFER_SIZE);
+            else if (PIPELINE_FLAG.equals(args[i]))
+                isPipelined = true;
+        }
+
+        if (scriptPath != null)
+            output = new BufferedOutputSink(OUTPUT_BUFFER_SIZE);
+
+        // The snapshot is read on startup if present and written back on exit.
+        // Once a journal exists, it holds every change since, so the snapshot only seeds a new one.
+        boolean isJournalNew = journalPath == null || !Files.exists(Paths.get(journalPath));
+        if (snapshotPath != null && isJournalNew && Files.exists(Paths.get(snapshotPath))) {
+            Error error = PartManager.MAIN.load(snapshotPath).error;
+            printError(error);
+            // A snapshot that could not be read is kept as it is rather than overwritten with an empty graph
+            if (error != null)
+                snapshotPath = null;
+        }
+
+        if (journalPath != null)
+            openJournal(journalSyncInterval, journalSyncDelay, journalLimit);
+
+        // The metrics are written periodically while running and once more on exit
+        if (statsPath != null)
+            Metrics.MAIN.dumpEvery(Paths.get(statsPath), PartManager.MAIN, statsInterval);
+
+        if (serverPort > 0) {
+            // The server never returns, so the exit steps run once the process is stopped
+            String exitSnapshotPath = snapshotPath;
+            String exitStatsPath = statsPath;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> exit(exitSnapshotPath, exitStatsPath)));
+            serve(serverPort);
+            return;
+        }
+
+        if (scriptPath != null) {
+            runScript(scriptPath, isPipelined);
+        } else if (isPipelined) {
+            runPipeline();
+        } else {
+            loop();
+        }
+
+        exit(snapshotPath, statsPath);
+    }
+
+    /**
+     * Closes the journal, writes the snapshot back, dumps the metrics and
+     * flushes the output. The manager stays locked until the snapshot is
+     * written, so that it holds exactly what the journal does.
+     */
+    private static void exit(String snapshotPath, String statsPath) {
+        synchronized (PartManager.MAIN) {
+            if (journal != null)
+                closeJournal();
+
+            if (snapshotPath != null)
+                printError(PartManager.MAIN.save(snapshotPath).error);
+        }
+
+        if (statsPath != null)
+            dumpMetrics(statsPath);
 
+        output.flush();
     }
 
     private static void loop() {
-        while (isListening) {
-            go(Terminal.readLine());
+        String input;
+        do {
+            input = Terminal.readLine();
+        } while (input != null && go(input, output));
+    }
+
+    /**
+     * Reads the command lines from the standard input in a pipeline.
+     * The lines are read directly, since the terminal reads only one line at a time.
+     */
+    private static void runPipeline() {
+        // The standard input is left open, the reader thread may still be waiting on it
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        try {
+            new Pipeline(reader, output).run();
+        } catch (IOException ex) {
+            printError(new Error(Error.Type.FILE_NOT_READABLE, "stdin"));
+        }
+    }
+
+    /**
+     * Serves connections until the process is stopped
+     */
+    private static void serve(int port) {
+        isServing = true;
+        try {
+            new Server(port).run();
+        } catch (IOException ex) {
+            printError(new Error(Error.Type.PORT_NOT_AVAILABLE, Integer.toString(port)));
+        }
+    }
+
+    private static void dumpMetrics(String path) {
+        try {
+            Metrics.MAIN.dump(Paths.get(path), PartManager.MAIN);
+        } catch (IOException | InvalidPathException ex) {
+            printError(new Error(Error.Type.FILE_NOT_WRITABLE, path));
+        }
+    }
+
+    private static long parsePositive(String value, long fallback) {
+        try {
+            long parsed = Long.parseLong(value);
+            return parsed > 0 ? parsed : fallback;
+        } catch (NumberFormatException ex) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Restores the part graph from the journal and its snapshot.
+     * A transaction that was not committed before the journal ended is dropped.
+     * The journal stays disabled if it could not be read.
+     */
+    private static void openJournal(int syncInterval, long syncDelay, long limit) {
+        journal = new Journal(PartManager.MAIN, Paths.get(journalPath), syncInterval, limit);
+        try {
+            journal.recover(Main::replay);
+            if (PartManager.MAIN.isInTransaction()) {
+                PartManager.MAIN.rollbackTransaction();
+                journal.append(Command.ROLLBACK.getRawValue());
+            }
+            journal.syncEvery(syncDelay);
+        } catch (IOException ex) {
+            journal = null;
+            printError(new Error(Error.Type.FILE_NOT_READABLE, journalPath));
+        }
+    }
+
+    private static void closeJournal() {
+        synchronized (PartManager.MAIN) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                printError(new Error(Error.Type.FILE_NOT_WRITABLE, journalPath));
+            }
         }
     }
 
-    private static void go(String input) {
+    /**
+     * Records a successful operation in the journal. Loading a snapshot or
+     * importing a file depends on files outside the journal, so it compacts
+     * the journal instead.
+     */
+    private static void record(Operation operation, String input, OutputSink sink) {
+        try {
+            if (operation.getCommand().isReadingFile())
+                journal.compact();
+            else
+                journal.append(input);
+        } catch (IOException ex) {
+            printError(sink, new Error(Error.Type.FILE_NOT_WRITABLE, journalPath));
+        }
+    }
+
+    /**
+     * Executes a journaled command line without printing anything
+     */
+    private static void replay(String input) {
         Result<Operation> operationResult = Operation.buildWith(input);
-        if (!operationResult.isSuccessful()) {
-            printError(operationResult.error);
+        if (operationResult.isSuccessful() && operationResult.value.validate())
+            operationResult.value.execute();
+    }
+
+    /**
+     * Streams each line of the given file through the command pipeline,
+     * in separate stages if pipelined, and reports the throughput at the end
+     */
+    private static void runScript(String path, boolean isPipelined) {
+        long commandCount = 0;
+        long startTime = System.nanoTime();
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path))) {
+            if (isPipelined) {
+                commandCount = new Pipeline(reader, output).run();
+            } else {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    commandCount++;
+                    if (!go(line, output))
+                        break;
+                }
+            }
+        } catch (IOException ex) {
+            printError(new Error(Error.Type.FILE_NOT_READABLE, path));
             return;
         }
 
+        output.flush();
+
+        double seconds = (System.nanoTime() - startTime) / NANOS_PER_SECOND;
+        System.err.printf("Executed %d commands in %.3f s (%.0f commands/sec)%n",
+                commandCount, seconds, commandCount / seconds);
+    }
+
+    /**
+     * Runs the given command line and prints its outcome.
+     * The run is recorded in the metrics, timed up to the printing.
+     *
+     * @param input Command line to run
+     * @param sink  Destination of the printed lines
+     * @return false if the command line asked to quit, otherwise true
+     */
+    static boolean go(String input, OutputSink sink) {
+        long startTime = System.nanoTime();
+        Result<Operation> operationResult = Operation.buildWith(input);
+        boolean isValid = operationResult.isSuccessful() && operationResult.value.validate();
+        return go(operationResult, isValid, input, startTime, sink);
+    }
+
+    /**
+     * Runs a command line that has been built and validated before
+     * and prints its outcome. The run is recorded in the metrics,
+     * timed from the given start up to the printing.
+     *
+     * @param operationResult Result of building the operation of the line
+     * @param isValid         Whether the parameters of the operation are valid
+     * @param input           Command line to run
+     * @param startTime       Value of {@link System#nanoTime()} when the line was read
+     * @param sink            Destination of the printed lines
+     * @return false if the command line asked to quit, otherwise true
+     */
+    static boolean go(Result<Operation> operationResult, boolean isValid, String input, long startTime,
+                      OutputSink sink) {
+        if (!operationResult.isSuccessful()) {
+            Metrics.MAIN.record(null, operationResult.error, System.nanoTime() - startTime);
+            printError(sink, operationResult.error);
+            return true;
+        }
+
         Operation operation = operationResult.value;
-        if (!operation.validate()) {
-            printError(new Error(Error.Type.PARAM_NOT_VALID));
-            return;
+        if (!isValid) {
+            Error error = new Error(Error.Type.PARAM_NOT_VALID);
+            Metrics.MAIN.record(operation.getCommand(), error, System.nanoTime() - startTime);
+            printError(sink, error);
+            return true;
+        }
+
+        if (isServing && !operation.getCommand().isServable()) {
+            Error error = new Error(Error.Type.NOT_SERVABLE, operation.getCommand().getRawValue());
+            Metrics.MAIN.record(operation.getCommand(), error, System.nanoTime() - startTime);
+            printError(sink, error);
+            return true;
         }
 
-        Result<String> executionResult = operation.execute();
+        if (operation.getCommand() == Command.QUIT) {
+            Metrics.MAIN.record(Command.QUIT, null, System.nanoTime() - startTime);
+            return false;
+        }
+
+        Result<String> executionResult = execute(operation, input, sink);
+        Metrics.MAIN.record(operation.getCommand(), executionResult.error, System.nanoTime() - startTime);
         if (executionResult.isSuccessful()) {
-            printLine(executionResult.value);
+            printLine(sink, executionResult.value);
         } else {
-            printError(executionResult.error);
+            printError(sink, executionResult.error);
+        }
+
+        return true;
+    }
+
+    /**
+     * Executes the given operation. Changes are journaled while the
+     * manager is still locked, so the journal keeps the order they were made in.
+     */
+    private static Result<String> execute(Operation operation, String input, OutputSink sink) {
+        Command command = operation.getCommand();
+        if (journal == null || !(command.isMutating() || command.isReadingFile()))
+            return operation.execute();
+
+        synchronized (PartManager.MAIN) {
+            Result<String> result = operation.execute();
+            if (result.isSuccessful())
+                record(operation, input, sink);
+
+            return result;
         }
     }
 
-    private static void printLine(Object obj) {
+    private static void printLine(OutputSink sink, Object obj) {
         if (obj != null)
-            Terminal.printLine(obj);
+            sink.printLine(obj.toString());
     }
 
     private static void printError(Error error) {
+        printError(output, error);
+    }
+
+    private static void printError(OutputSink sink, Error error) {
         if (error != null)
-            Terminal.printError(error.toString());
+            sink.printLine("Error, " + error);
     }
 
     class Defaults {
         /**
-         * Regex rules for part name inputs
+         * Character to use when separating commands and parameters
          */
-        static final String PART_NAME_REGEX = "[a-zA-Z]+";
+        static final char COMMAND_PARAMETER_SEPARATOR = ' ';
         /**
-         * Regex rules for amount inputs
+         * Character to use when separating names and amounts
          */
-        static final String AMOUNT_REGEX = "(1000|([0-9]{1,3}))";
+        static final char NAME_AMOUNT_SEPARATOR = ':';
         /**
-         * String literal to use when separating commands and parameters
+         * Character to use when separating parts
          */
-        static final String COMMAND_PARAMETER_SEPARATOR = " ";
+        static final char PART_SEPARATOR = ';';
         /**
-         * String literal to use when separating names and amounts
+         * Character to use when setting an assembly
          */
-        static final String NAME_AMOUNT_SEPARATOR = ":";
+        static final char SETTER_LITERAL = '=';
         /**
-         * String literal to use when separating parts
+         * Character to use when adding to an assembly
          */
-        static final String PART_SEPARATOR = ";";
+        static final char ADD_LITERAL = '+';
         /**
-         * String literal to use when setting an assembly
+         * Character to use when subtracting from an assembly
          */
-        static final String SETTER_LITERAL = "=";
-        /**
-         * String literal to use when adding to an assembly
-         */
-        static final String ADD_LITERAL = "+";
-        /**
-         * String literal to use when subtracting from an assembly
-         */
-        static final String SUBTRACT_LITERAL = "-";
+        static final char SUBTRACT_LITERAL = '-';
         /**
          * Minimum value of an amount variable
          */
         static final int MIN_AMOUNT = 1;
+        /**
+         * Maximum value of an amount variable
+         */
+        static final int MAX_AMOUNT = 1000;
     }
 }
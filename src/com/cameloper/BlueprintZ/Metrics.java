@@ -0,0 +1,158 @@
+package com.cameloper.BlueprintZ;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and times every command line that is run.
+ * <p>
+ * For each command the count of runs, the count of failed runs and a
+ * histogram of their latencies are kept, and for each error type how often
+ * it was reported, including errors of lines that named no valid command.
+ * Recording never locks, so every connection of the server records at once.
+ * The size of the part graph is measured on the version that is printed,
+ * next to the hits and misses of the explosion cache.
+ */
+final class Metrics {
+    /**
+     * Main instance of Metrics
+     */
+    static final Metrics MAIN = new Metrics();
+    private static final double NANOS_PER_MICRO = 1e3;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final EnumMap<Command, LatencyHistogram> latencies = new EnumMap<>(Command.class);
+    private final EnumMap<Command, LongAdder> failures = new EnumMap<>(Command.class);
+    private final EnumMap<Error.Type, LongAdder> errors = new EnumMap<>(Error.Type.class);
+    private final long startTime = System.nanoTime();
+
+    /**
+     * Empty constructor for {@link Metrics}
+     */
+    Metrics() {
+        for (Command command : Command.values()) {
+            latencies.put(command, new LatencyHistogram());
+            failures.put(command, new LongAdder());
+        }
+        for (Error.Type type : Error.Type.values()) {
+            errors.put(type, new LongAdder());
+        }
+    }
+
+    /**
+     * Records one run of a command
+     *
+     * @param command Command that was run, null if the line named no valid command
+     * @param error   Error the run reported, null if it succeeded
+     * @param nanos   Time the run took in nanoseconds
+     */
+    void record(Command command, Error error, long nanos) {
+        if (error != null)
+            errors.get(error.getType()).increment();
+
+        if (command == null)
+            return;
+
+        latencies.get(command).record(nanos);
+        if (error != null)
+            failures.get(command).increment();
+    }
+
+    /**
+     * Builds a report of every recorded command and error together with
+     * the size of the current version and the cache use of the given manager
+     *
+     * @param manager Manager whose part graph and cache are measured
+     * @return Report with one line per gauge, command and error type
+     */
+    String print(PartManager manager) {
+        PartList list = manager.getList();
+        ExplosionCache cache = manager.getExplosionCache();
+        long hits = cache.getHits();
+        long lookups = hits + cache.getMisses();
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("parts=%d edges=%d depth=%d", list.size(), list.edgeCount(), list.depth()));
+        out.append('\n').append(String.format("cache hits=%d misses=%d hitRate=%.1f%%",
+                hits, lookups - hits, lookups == 0 ? 0 : 100.0 * hits / lookups));
+
+        long total = 0;
+        for (Command command : Command.values()) {
+            LatencyHistogram histogram = latencies.get(command);
+            long count = histogram.getCount();
+            if (count == 0)
+                continue;
+
+            total += count;
+            out.append('\n').append(String.format("%s count=%d errors=%d mean=%s",
+                    command.getRawValue(), count, failures.get(command).sum(), micros(histogram.mean())));
+            for (int i = 0; i < QUANTILES.length; i++) {
+                out.append(' ').append(QUANTILE_NAMES[i]).append('=').append(micros(histogram.valueAt(QUANTILES[i])));
+            }
+            out.append(" max=").append(micros(histogram.getMax()));
+        }
+
+        for (Error.Type type : Error.Type.values()) {
+            long count = errors.get(type).sum();
+            if (count > 0)
+                out.append('\n').append(String.format("error %s=%d", type, count));
+        }
+
+        double seconds = (System.nanoTime() - startTime) / NANOS_PER_SECOND;
+        out.append('\n').append(String.format("commands=%d uptime=%.1fs throughput=%.1f/s",
+                total, seconds, total / seconds));
+
+        return out.toString();
+    }
+
+    /**
+     * Writes the report to the file with given path, replacing it at once
+     *
+     * @param path    Path of the report file
+     * @param manager Manager whose part graph and cache are measured
+     * @throws IOException if the file could not be written
+     */
+    void dump(Path path, PartManager manager) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temporary, (print(manager) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the report for the current version of the given manager
+     * periodically in the background
+     *
+     * @param path    Path of the report file
+     * @param manager Manager whose part graph is measured
+     * @param seconds Seconds between two reports
+     */
+    void dumpEvery(Path path, PartManager manager, long seconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                dump(path, manager);
+            } catch (IOException ex) {
+                // The report is simply written again on the next period
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private static String micros(double nanos) {
+        return String.format("%.1fus", nanos / NANOS_PER_MICRO);
+    }
+}
@@ -1,55 +1,160 @@
 package com.cameloper.BlueprintZ;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 final class Operation {
 
-    private static final int INPUT_COMMAND_INDEX = 0;
-    private static final int INPUT_PARAMETER_INDEX = 1;
-    private static final int INPUT_ID_INDEX = 0;
-    private static final int INPUT_NA_PAIR_INDEX = 1;
-    private static final int NA_PAIR_NAME_INDEX = 1;
-    private static final int NA_PAIR_AMOUNT_INDEX = 0;
-
     private static final String OK_STRING = "OK";
     private final Command command;
-    private final String parameterString;
+    private final String input;
+    private final int parameterStart;
+    private final int parameterEnd;
+
+    private String id;
+    private String childId;
+    private int amount;
+    private HashMap<String, Integer> children;
+    private String path;
+    private Error parameterError;
 
-    private Operation(Command command, String parameterString) {
+    private Operation(Command command, String input, int parameterStart, int parameterEnd) {
         this.command = command;
-        this.parameterString = parameterString;
+        this.input = input;
+        this.parameterStart = parameterStart;
+        this.parameterEnd = parameterEnd;
     }
 
     /**
-     * Default builder for Operation
+     * Default builder for Operation.
+     * Splits the input into command and parameters the same way as
+     * splitting it at each separator would, but without copying it.
      *
      * @param input The input string from user
      * @return Result of the build
      */
     static Result<Operation> buildWith(String input) {
-        String[] cmdComponents = input.split(Main.Defaults.COMMAND_PARAMETER_SEPARATOR);
-        if (cmdComponents.length < 1)
+        char separator = Main.Defaults.COMMAND_PARAMETER_SEPARATOR;
+
+        // Trailing separators do not count as empty parameters
+        int end = input.length();
+        while (end > 0 && input.charAt(end - 1) == separator) {
+            end--;
+        }
+
+        if (end == 0 && !input.isEmpty())
             return new Result<>(null, new Error(Error.Type.NO_INPUT));
 
-        Command cmd = Command.build(cmdComponents[INPUT_COMMAND_INDEX]);
+        int commandEnd = input.indexOf(separator);
+        if (commandEnd < 0 || commandEnd > end)
+            commandEnd = end;
+
+        Command cmd = Command.build(input, commandEnd);
         if (cmd == null)
             return new Result<>(null, new Error(Error.Type.CMD_NOT_VALID));
 
-        String parameters = "";
+        // Parameters only count if they form exactly one more component
+        int parameterStart = commandEnd + 1;
+        int nextSeparator = input.indexOf(separator, parameterStart);
+        if (parameterStart >= end || (nextSeparator >= 0 && nextSeparator < end))
+            parameterStart = end;
 
-        if (cmdComponents.length == 2)
-            parameters = cmdComponents[INPUT_PARAMETER_INDEX];
+        return new Result<>(new Operation(cmd, input, parameterStart, end), null);
+    }
 
-        return new Result<>(new Operation(cmd, parameters), null);
+    /**
+     * Getter of Command
+     *
+     * @return The command this operation executes
+     */
+    Command getCommand() {
+        return command;
     }
 
     /**
-     * Validates the parameter string with relevant regex literals
+     * Validates the parameters against the grammar of current command
+     * and keeps their values for the execution
      *
      * @return true if parameters are valid, otherwise false
      */
     boolean validate() {
-        return parameterString.matches(command.getRegex());
+        ParameterParser parser = new ParameterParser(input, parameterStart, parameterEnd);
+        switch (command) {
+            case ADD_ASSEMBLY:
+                return parseAssembly(parser);
+            case ADD_PART:
+                return parseChildChange(parser, Main.Defaults.ADD_LITERAL);
+            case REMOVE_PART:
+                return parseChildChange(parser, Main.Defaults.SUBTRACT_LITERAL);
+            case GET_ASSEMBLIES:
+            case GET_COMPONENTS:
+            case GET_WHERE_USED:
+            case PRINT_ASSEMBLY:
+            case REMOVE_ASSEMBLY:
+                id = parser.name();
+                return id != null && parser.atEnd();
+            case IMPORT:
+            case SAVE:
+            case LOAD:
+                path = parser.rest();
+                return path != null;
+            default:
+                return parser.atEnd();
+        }
+    }
+
+    /**
+     * Parses {@code id=amount:name(;amount:name)*}. The first repeated name
+     * or amount out of range is kept to be reported on execution.
+     */
+    private boolean parseAssembly(ParameterParser parser) {
+        id = parser.name();
+        if (id == null || !parser.skip(Main.Defaults.SETTER_LITERAL))
+            return false;
+
+        children = new HashMap<>();
+        do {
+            int childAmount = parser.amount();
+            if (childAmount == ParameterParser.NO_AMOUNT || !parser.skip(Main.Defaults.NAME_AMOUNT_SEPARATOR))
+                return false;
+
+            String name = parser.name();
+            if (name == null)
+                return false;
+
+            if (parameterError != null)
+                continue;
+
+            if (children.containsKey(name))
+                parameterError = new Error(Error.Type.MULTIPLE_PART_REFERENCES, name);
+            else if (childAmount < Main.Defaults.MIN_AMOUNT)
+                parameterError = new Error(Error.Type.NUMBER_NOT_IN_RANGE, Integer.toString(childAmount));
+            else
+                children.put(name, childAmount);
+        } while (parser.skip(Main.Defaults.PART_SEPARATOR));
+
+        return parser.atEnd();
+    }
+
+    /**
+     * Parses {@code id<literal>amount:name}
+     */
+    private boolean parseChildChange(ParameterParser parser, char literal) {
+        id = parser.name();
+        if (id == null || !parser.skip(literal))
+            return false;
+
+        amount = parser.amount();
+        if (amount == ParameterParser.NO_AMOUNT || !parser.skip(Main.Defaults.NAME_AMOUNT_SEPARATOR))
+            return false;
+
+        childId = parser.name();
+        return childId != null && parser.atEnd();
     }
 
     /**
@@ -60,7 +165,6 @@ final class Operation {
     Result<String> execute() {
         switch (command) {
             case QUIT:
-                Main.isListening = false;
                 return new Result<>(null, null);
             case ADD_ASSEMBLY:
                 return addAssembly();
@@ -72,46 +176,45 @@ final class Operation {
                 return getAssemblies();
             case GET_COMPONENTS:
                 return getComponents();
+            case GET_WHERE_USED:
+                return getWhereUsed();
             case ADD_PART:
                 return addPart();
             case REMOVE_PART:
                 return removePart();
+            case BEGIN:
+                return toOutput(PartManager.MAIN.beginTransaction());
+            case COMMIT:
+                return toOutput(PartManager.MAIN.commitTransaction());
+            case ROLLBACK:
+                return toOutput(PartManager.MAIN.rollbackTransaction());
+            case IMPORT:
+                return importAssemblies();
+            case SAVE:
+                return save();
+            case LOAD:
+                return load();
+            case STATS:
+                return stats();
             default:
                 return new Result<>(null, new Error(Error.Type.OTHER));
         }
     }
 
     private Result<String> addAssembly() {
-        String[] parameters = parameterString.split(Main.Defaults.SETTER_LITERAL);
-        String id = parameters[INPUT_ID_INDEX];
+        if (parameterError != null)
+            return new Result<>(null, parameterError);
 
-        try {
-            HashMap<String, Integer> children = new HashMap<>();
-            for (String naPairString : parameters[INPUT_NA_PAIR_INDEX].split(Main.Defaults.PART_SEPARATOR)) {
-                String[] naPair = naPairString.split(Main.Defaults.NAME_AMOUNT_SEPARATOR);
-                String name = naPair[NA_PAIR_NAME_INDEX];
-                if (children.keySet().stream().anyMatch(sp -> sp.equals(name)))
-                    return new Result<>(null, new Error(Error.Type.MULTIPLE_PART_REFERENCES, name));
-                Integer amount = Integer.parseInt(naPair[NA_PAIR_AMOUNT_INDEX]);
-                if (amount < Main.Defaults.MIN_AMOUNT)
-                    return new Result<>(null, new Error(Error.Type.NUMBER_NOT_IN_RANGE, amount.toString()));
-                children.put(name, amount);
-            }
-
-            Result<Void> result = PartManager.MAIN.addAssemblyWith(id, children);
-            if (result.isSuccessful()) {
-                return new Result<>(OK_STRING, null);
-            } else {
-                return new Result<>(null, result.error);
-            }
-
-        } catch (NumberFormatException nEx) {
-            return new Result<>(null, new Error(Error.Type.NUMBER_NOT_VALID));
+        Result<Void> result = PartManager.MAIN.addAssemblyWith(id, children);
+        if (result.isSuccessful()) {
+            return new Result<>(OK_STRING, null);
+        } else {
+            return new Result<>(null, result.error);
         }
     }
 
     private Result<String> removeAssembly() {
-        Result<Void> result = PartManager.MAIN.removeAssemblyWith(parameterString);
+        Result<Void> result = PartManager.MAIN.removeAssemblyWith(id);
 
         if (result.isSuccessful()) {
             return new Result<>(OK_STRING, null);
@@ -121,62 +224,110 @@ final class Operation {
     }
 
     private Result<String> printAssembly() {
-        return PartManager.MAIN.printAssemblyWith(parameterString);
+        return PartManager.MAIN.printAssemblyWith(id);
     }
 
     private Result<String> getAssemblies() {
-        return PartManager.MAIN.getAssembliesOf(parameterString);
+        return PartManager.MAIN.getAssembliesOf(id);
     }
 
     private Result<String> getComponents() {
-        return PartManager.MAIN.getComponentsOf(parameterString);
+        return PartManager.MAIN.getComponentsOf(id);
     }
 
-    private Result<String> addPart() {
-        String[] parameters = parameterString.split("\\" + Main.Defaults.ADD_LITERAL);
-        String toId = parameters[INPUT_ID_INDEX];
-        String[] naPair = parameters[INPUT_NA_PAIR_INDEX].split(Main.Defaults.NAME_AMOUNT_SEPARATOR);
+    private Result<String> getWhereUsed() {
+        return PartManager.MAIN.getWhereUsed(id);
+    }
 
-        String id = naPair[NA_PAIR_NAME_INDEX];
-        String amountString = naPair[NA_PAIR_AMOUNT_INDEX];
+    private Result<String> addPart() {
+        if (amount < Main.Defaults.MIN_AMOUNT)
+            return new Result<>(null, new Error(Error.Type.NUMBER_NOT_IN_RANGE, Integer.toString(amount)));
 
-        try {
-            int amount = Integer.parseInt(amountString);
-            if (amount < Main.Defaults.MIN_AMOUNT)
-                return new Result<>(null, new Error(Error.Type.NUMBER_NOT_IN_RANGE, Integer.toString(amount)));
-
-            Result<Void> result = PartManager.MAIN.addPart(toId, id, amount);
-            if (result.isSuccessful()) {
-                return new Result<>(OK_STRING, null);
-            } else {
-                return new Result<>(null, result.error);
-            }
-        } catch (NumberFormatException ex) {
-            return new Result<>(null, new Error(Error.Type.NUMBER_NOT_VALID));
+        Result<Void> result = PartManager.MAIN.addPart(id, childId, amount);
+        if (result.isSuccessful()) {
+            return new Result<>(OK_STRING, null);
+        } else {
+            return new Result<>(null, result.error);
         }
     }
 
     private Result<String> removePart() {
-        String[] parameters = parameterString.split(Main.Defaults.SUBTRACT_LITERAL);
-        String fromId = parameters[INPUT_ID_INDEX];
-        String[] naPair = parameters[INPUT_NA_PAIR_INDEX].split(Main.Defaults.NAME_AMOUNT_SEPARATOR);
+        if (amount < Main.Defaults.MIN_AMOUNT)
+            return new Result<>(null, new Error(Error.Type.NUMBER_NOT_IN_RANGE, Integer.toString(amount)));
 
-        String id = naPair[NA_PAIR_NAME_INDEX];
-        String amountString = naPair[NA_PAIR_AMOUNT_INDEX];
+        Result<Void> result = PartManager.MAIN.removePart(id, childId, amount);
+        if (result.isSuccessful()) {
+            return new Result<>(OK_STRING, null);
+        } else {
+            return new Result<>(null, result.error);
+        }
+    }
 
+    /**
+     * Reads every assembly from the file of addAssembly lines
+     * and adds them together. Empty lines are skipped.
+     */
+    private Result<String> importAssemblies() {
+        List<String> lines;
         try {
-            int amount = Integer.parseInt(amountString);
-            if (amount < Main.Defaults.MIN_AMOUNT)
-                return new Result<>(null, new Error(Error.Type.NUMBER_NOT_IN_RANGE, Integer.toString(amount)));
-
-            Result<Void> result = PartManager.MAIN.removePart(fromId, id, amount);
-            if (result.isSuccessful()) {
-                return new Result<>(OK_STRING, null);
-            } else {
-                return new Result<>(null, result.error);
-            }
-        } catch (NumberFormatException ex) {
-            return new Result<>(null, new Error(Error.Type.NUMBER_NOT_VALID));
+            lines = Files.readAllLines(Paths.get(path));
+        } catch (IOException | InvalidPathException ex) {
+            return new Result<>(null, new Error(Error.Type.FILE_NOT_READABLE, path));
+        }
+
+        LinkedHashMap<String, HashMap<String, Integer>> assemblies = new LinkedHashMap<>();
+        for (String line : lines) {
+            if (line.isEmpty())
+                continue;
+
+            Result<Operation> operationResult = buildWith(line);
+            if (!operationResult.isSuccessful())
+                return new Result<>(null, operationResult.error);
+
+            Operation operation = operationResult.value;
+            if (operation.command != Command.ADD_ASSEMBLY || !operation.validate())
+                return new Result<>(null, new Error(Error.Type.PARAM_NOT_VALID));
+            if (operation.parameterError != null)
+                return new Result<>(null, operation.parameterError);
+            if (assemblies.putIfAbsent(operation.id, operation.children) != null)
+                return new Result<>(null, new Error(Error.Type.ASSEMBLY_ALREADY_EXISTS, operation.id));
+        }
+
+        Result<Void> result = PartManager.MAIN.addAssembliesWith(assemblies);
+        if (result.isSuccessful()) {
+            return new Result<>(OK_STRING, null);
+        } else {
+            return new Result<>(null, result.error);
+        }
+    }
+
+    private Result<String> save() {
+        Result<Void> result = PartManager.MAIN.save(path);
+        if (result.isSuccessful()) {
+            return new Result<>(OK_STRING, null);
+        } else {
+            return new Result<>(null, result.error);
+        }
+    }
+
+    private Result<String> load() {
+        Result<Void> result = PartManager.MAIN.load(path);
+        if (result.isSuccessful()) {
+            return new Result<>(OK_STRING, null);
+        } else {
+            return new Result<>(null, result.error);
         }
     }
+
+    private Result<String> toOutput(Result<Void> result) {
+        if (result.isSuccessful()) {
+            return new Result<>(OK_STRING, null);
+        } else {
+            return new Result<>(null, result.error);
+        }
+    }
+
+    private Result<String> stats() {
+        return new Result<>(Metrics.MAIN.print(PartManager.MAIN), null);
+    }
 }
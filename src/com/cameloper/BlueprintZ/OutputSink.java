@@ -0,0 +1,18 @@
+package com.cameloper.BlueprintZ;
+
+/**
+ * Destination of every line the program prints
+ */
+interface OutputSink {
+    /**
+     * Prints the given text and then terminates the line
+     *
+     * @param line Text to print
+     */
+    void printLine(String line);
+
+    /**
+     * Writes out every line that has not been written yet
+     */
+    void flush();
+}
@@ -0,0 +1,134 @@
+package com.cameloper.BlueprintZ;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counts the total amount of each part below an assembly on every core.
+ * <p>
+ * Sub-assemblies are shared between many parents, so the parts below the
+ * assembly are not split into separate subtrees. Instead they are expanded
+ * in waves: each wave holds the parts whose parents below the assembly have
+ * all been expanded. The parts of a wave are independent of each other and
+ * are split across the common fork/join pool. Totals and pending parent
+ * counts are kept in atomic arrays, so the result is exactly the one of
+ * the sequential expansion.
+ */
+final class ParallelExplosion {
+    /**
+     * Count of parts below an assembly from which on the parallel expansion pays off
+     */
+    static final int THRESHOLD = 1 << 14;
+    /**
+     * Count of parts of a wave that a single task expands
+     */
+    private static final int GRAIN = 1 << 8;
+
+    private final PartList list;
+    private final Part[] parts;
+    private final IntIntMap indices;
+    private final AtomicIntegerArray totals;
+    private final AtomicIntegerArray pendingParents;
+
+    /**
+     * Prepares the expansion of the given part
+     *
+     * @param list         Version the part belongs to
+     * @param part         Starting part
+     * @param parentCounts For each part below the starting part, how many of
+     *                     its parents are reachable from the starting part
+     */
+    ParallelExplosion(PartList list, Part part, IntIntMap parentCounts) {
+        int count = parentCounts.size();
+        this.list = list;
+        this.parts = new Part[count + 1];
+        this.indices = new IntIntMap(count + 1);
+        this.totals = new AtomicIntegerArray(count + 1);
+        this.pendingParents = new AtomicIntegerArray(count + 1);
+
+        int index = 0;
+        for (int slot = parentCounts.next(-1); slot >= 0; slot = parentCounts.next(slot)) {
+            indices.put(parentCounts.keyAt(slot), index);
+            pendingParents.set(index, parentCounts.valueAt(slot));
+            index++;
+        }
+
+        // The starting part takes the last index
+        parts[count] = part;
+        indices.put(part.getKey(), count);
+        totals.set(count, 1);
+    }
+
+    /**
+     * Expands every part below the starting part
+     *
+     * @param type Type of parts that should be counted
+     * @return Total count of each part with type
+     */
+    HashMap<String, Integer> run(Part.Type type) {
+        Part root = parts[parts.length - 1];
+        ArrayList<Part> wave = new ArrayList<>();
+        wave.add(root);
+        while (!wave.isEmpty()) {
+            wave = new Wave(wave, 0, wave.size()).invoke();
+        }
+
+        HashMap<String, Integer> out = new HashMap<>();
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (parts[i].getType() == type)
+                out.put(parts[i].getId(), totals.get(i));
+        }
+
+        return out;
+    }
+
+    /**
+     * Expands a range of a wave and gives the parts that are ready for the next one
+     */
+    private final class Wave extends RecursiveTask<ArrayList<Part>> {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<Part> wave;
+        private final int from;
+        private final int to;
+
+        Wave(ArrayList<Part> wave, int from, int to) {
+            this.wave = wave;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ArrayList<Part> compute() {
+            if (to - from > GRAIN) {
+                int middle = (from + to) >>> 1;
+                Wave second = new Wave(wave, middle, to);
+                second.fork();
+                ArrayList<Part> ready = new Wave(wave, from, middle).compute();
+                ready.addAll(second.join());
+                return ready;
+            }
+
+            ArrayList<Part> ready = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                Part current = wave.get(i);
+                int total = totals.get(indices.get(current.getKey()));
+
+                IntIntMap children = current.getChildren();
+                for (int slot = children.next(-1); slot >= 0; slot = children.next(slot)) {
+                    int index = indices.get(children.keyAt(slot));
+                    totals.addAndGet(index, total * children.valueAt(slot));
+
+                    if (pendingParents.decrementAndGet(index) == 0) {
+                        parts[index] = list.getPartWith(children.keyAt(slot));
+                        ready.add(parts[index]);
+                    }
+                }
+            }
+
+            return ready;
+        }
+    }
+}
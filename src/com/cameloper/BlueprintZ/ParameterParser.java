@@ -0,0 +1,116 @@
+package com.cameloper.BlueprintZ;
+
+/**
+ * Single-pass scanner over the parameters of a command.
+ * Reads names, amounts and literals straight from the input
+ * string, without splitting it or running a regex engine.
+ */
+final class ParameterParser {
+    /**
+     * Value returned for an amount that does not match the grammar
+     */
+    static final int NO_AMOUNT = -1;
+
+    private static final int MAX_AMOUNT_DIGITS = 3;
+    private static final int DECIMAL_BASE = 10;
+
+    private final String input;
+    private final int end;
+    private int position;
+
+    /**
+     * Creates a parser for the given range of the input
+     *
+     * @param input Complete input string
+     * @param start Index of the first parameter character
+     * @param end   Index after the last parameter character
+     */
+    ParameterParser(String input, int start, int end) {
+        this.input = input;
+        this.position = start;
+        this.end = end;
+    }
+
+    /**
+     * Says whether every character has been consumed
+     *
+     * @return true if no characters are left, otherwise false
+     */
+    boolean atEnd() {
+        return position == end;
+    }
+
+    /**
+     * Consumes the given literal if it is the next character
+     *
+     * @param literal Expected character
+     * @return true if the literal was consumed, otherwise false
+     */
+    boolean skip(char literal) {
+        if (position < end && input.charAt(position) == literal) {
+            position++;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Consumes a part name made of one or more latin letters
+     *
+     * @return The name, or null if the next character is not a letter
+     */
+    String name() {
+        int start = position;
+        while (position < end && isLetter(input.charAt(position))) {
+            position++;
+        }
+
+        return position == start ? null : input.substring(start, position);
+    }
+
+    /**
+     * Consumes every remaining character
+     *
+     * @return The remaining characters, or null if there are none
+     */
+    String rest() {
+        if (atEnd())
+            return null;
+
+        String rest = input.substring(position, end);
+        position = end;
+        return rest;
+    }
+
+    /**
+     * Consumes an amount with one to three digits or exactly {@code MAX_AMOUNT}
+     *
+     * @return Value of the amount, or {@code NO_AMOUNT} if it does not match
+     */
+    int amount() {
+        int start = position;
+        int value = 0;
+        while (position < end && isDigit(input.charAt(position))) {
+            value = value * DECIMAL_BASE + (input.charAt(position) - '0');
+            position++;
+        }
+
+        int digits = position - start;
+        if (digits >= 1 && digits <= MAX_AMOUNT_DIGITS)
+            return value;
+
+        if (digits == MAX_AMOUNT_DIGITS + 1 && value == Main.Defaults.MAX_AMOUNT)
+            return value;
+
+        return NO_AMOUNT;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
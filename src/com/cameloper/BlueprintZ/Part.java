@@ -1,34 +1,64 @@
 package com.cameloper.BlueprintZ;
 
-import java.util.HashMap;
-import java.util.Map;
-
 class Part {
     private final String id;
-    private HashMap<String, Integer> children;
+    private final int key;
+    /**
+     * Amount of each child, indexed by the key of the child
+     */
+    private final IntIntMap children;
+    /**
+     * Keys of the parents
+     */
+    private final IntIntMap parents;
+    private int order;
+    private final Object owner;
 
     /**
      * Creates a new {@link Part} object using the properties of given one
      *
      * @param origin The part object to be cloned
+     * @param owner  The {@link PartList} version that may modify the clone
      */
-    Part(Part origin) {
+    Part(Part origin, Object owner) {
         this.id = origin.id;
-        this.children = new HashMap<>();
-        for (Map.Entry<String, Integer> child: origin.children.entrySet()) {
-            this.children.put(child.getKey(), child.getValue());
-        }
+        this.key = origin.key;
+        this.owner = owner;
+        this.children = new IntIntMap(origin.children);
+        this.parents = new IntIntMap(origin.parents);
+        this.order = origin.order;
     }
 
     /**
      * Default constructor of Part
      *
-     * @param id       by-user-given id of Part
-     * @param children If part is assembly, child Parts
+     * @param id    by-user-given id of Part
+     * @param key   Interned key of the id
+     * @param owner The {@link PartList} version that may modify the part
+     */
+    Part(String id, int key, Object owner) {
+        this.id = id;
+        this.key = key;
+        this.owner = owner;
+        this.children = new IntIntMap();
+        this.parents = new IntIntMap();
+    }
+
+    /**
+     * Creates a part with room for the given count of children and parents
+     *
+     * @param id          by-user-given id of Part
+     * @param key         Interned key of the id
+     * @param childCount  Expected count of children
+     * @param parentCount Expected count of parents
+     * @param owner       The {@link PartList} version that may modify the part
      */
-    Part(String id, HashMap<String, Integer> children) {
+    Part(String id, int key, int childCount, int parentCount, Object owner) {
         this.id = id;
-        this.children = children;
+        this.key = key;
+        this.owner = owner;
+        this.children = new IntIntMap(childCount);
+        this.parents = new IntIntMap(parentCount);
     }
 
     /**
@@ -41,79 +71,134 @@ class Part {
     }
 
     /**
-     * Getter of Children
+     * Getter of Key
+     *
+     * @return Interned key of the id
+     */
+    int getKey() {
+        return key;
+    }
+
+    /**
+     * Getter of Owner
+     *
+     * @return Edit token of the {@link PartList} version that may modify this part
+     */
+    Object getOwner() {
+        return owner;
+    }
+
+    /**
+     * Getter of Order
+     *
+     * @return Position of the part in the topological order of its list
+     */
+    int getOrder() {
+        return order;
+    }
+
+    /**
+     * Setter of Order
+     *
+     * @param order New position of the part in the topological order of its list
+     */
+    void setOrder(int order) {
+        this.order = order;
+    }
+
+    /**
+     * Getter of Children. The returned map must not be modified.
      *
-     * @return value of private variable Children
+     * @return Amount of each child, indexed by the key of the child
      */
-    HashMap<String, Integer> getChildren() {
+    IntIntMap getChildren() {
         return children;
     }
 
     /**
-     * Adds the given ID with given amount in children.
-     * If a child with the same ID already exists, increases the amount
-     * by corresponding parameter.
+     * Gives the amount of the child with given key
      *
-     * @param id ID of Part
-     * @param amount How many of the given part should be added
+     * @param key Key of the child
+     * @return Amount of the child, 0 if it is not a child
+     */
+    int amountOf(int key) {
+        return children.get(key);
+    }
+
+    /**
+     * Getter of Parents. The returned map must not be modified.
+     *
+     * @return Map whose keys are the keys of every part
+     * that has this part as a direct child
+     */
+    IntIntMap getParents() {
+        return parents;
+    }
+
+    /**
+     * Getter of ParentCount
+     *
+     * @return Count of parts that have this part as a direct child
      */
-    void addChild(String id, Integer amount) {
-        for (Map.Entry<String, Integer> child: children.entrySet()) {
-            if (child.getKey().equals(id)) {
-                child.setValue(child.getValue() + amount);
-                return;
-            }
-        }
+    int getParentCount() {
+        return parents.size();
+    }
+
+    /**
+     * Registers the part with given key as a direct parent of this part
+     *
+     * @param key Key of the parent Part
+     */
+    void addParent(int key) {
+        parents.put(key, 1);
+    }
 
-        children.put(id, amount);
+    /**
+     * Unregisters the part with given key as a direct parent of this part
+     *
+     * @param key Key of the parent Part
+     */
+    void removeParent(int key) {
+        parents.remove(key);
     }
 
     /**
-     * Calls the {@code addChild()} method for each child in given {@link HashMap}
+     * Adds the given key with given amount in children.
+     * If a child with the same key already exists, increases the amount
+     * by corresponding parameter.
      *
-     * @param children Every child to be added
+     * @param key Key of Part
+     * @param amount How many of the given part should be added
      */
-    void addChildren(HashMap<String, Integer> children) {
-        for (Map.Entry<String, Integer> child: children.entrySet()) {
-            addChild(child.getKey(), child.getValue());
-        }
+    void addChild(int key, int amount) {
+        children.add(key, amount);
     }
 
     /**
-     * Removes the given id from children if there are enough
+     * Removes the given key from children if there are enough
      *
-     * @param id ID to remove
-     * @param amount How many of the ID to remove
+     * @param key Key to remove
+     * @param amount How many of the key to remove
      * @return true if removal happened, otherwise false
      */
-    boolean removeChild(String id, int amount) {
-        if (children.keySet().stream().noneMatch(p -> p.equals(id)))
+    boolean removeChild(int key, int amount) {
+        int currentAmount = children.get(key);
+        if (currentAmount == 0 || currentAmount < amount)
             return false;
 
-        for (Map.Entry<String, Integer> child : children.entrySet()) {
-            if (child.getKey().equals(id)) {
-                int currentAmount = child.getValue();
-
-                if (currentAmount < amount)
-                    return false;
-                else if (currentAmount == amount) {
-                    children.remove(child.getKey());
-                    return true;
-                } else {
-                    child.setValue(currentAmount - amount);
-                    return true;
-                }
-            }
-        }
+        if (currentAmount == amount)
+            children.remove(key);
+        else
+            children.put(key, currentAmount - amount);
 
-        return false;
+        return true;
     }
 
     /**
-     * Replaces the current children with an empty HashMap
+     * Removes every child
      */
     void removeAllChildren() {
-        children = new HashMap<>();
+        children.clear();
     }
 
     /**
@@ -138,4 +223,4 @@ class Part {
          */
         COMPONENT
     }
-}
\ No newline at end of file
+}
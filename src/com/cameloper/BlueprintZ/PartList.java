@@ -1,54 +1,205 @@
 package com.cameloper.BlueprintZ;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+/**
+ * A version of the part graph. Copies share every unchanged
+ * {@link Part} with their origin and only clone the parts they modify,
+ * so a tentative copy can simply be dropped to roll back.
+ * Once a copy has been made, its origin is never modified again and
+ * may be read by any count of threads.
+ */
 class PartList {
-    private final ArrayList<Part> parts;
+    /**
+     * Source of the version numbers, shared by every list
+     */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    /**
+     * States of a part during a depth first walk
+     */
+    private static final int UNVISITED = 0;
+    private static final int ON_PATH = 1;
+    private static final int DONE = 2;
 
     /**
-     * Creates a new {@link PartList} object using the properties of given one
+     * Every part of the list, indexed by its key
+     */
+    private PartTrie parts;
+    /**
+     * Interned keys of part IDs, shared by every version
+     */
+    private final SymbolTable symbols;
+    /**
+     * Token of this version. Only parts owned by it are modified in place.
+     */
+    private Object edit = new Object();
+    /**
+     * Keys of the parts whose parent count dropped to zero, or that lost
+     * their last child without having any parent, since the last cleanup
+     */
+    private final ArrayDeque<Integer> orphans = new ArrayDeque<>();
+    /**
+     * Keys of the parts whose children changed since this version was created
+     */
+    private final HashSet<Integer> changedParts = new HashSet<>();
+    /**
+     * Children of the new edges that may break the topological order,
+     * while the checks are deferred. Null while every change is checked at once.
+     */
+    private ArrayList<Integer> uncheckedChildren;
+    /**
+     * Bounds of the topological order. Every parent has a lower
+     * order than each of its children.
+     */
+    private int lowestOrder;
+    private int highestOrder;
+    /**
+     * Number of this version. Lists created later have higher numbers.
+     */
+    private final long version = VERSIONS.incrementAndGet();
+
+    /**
+     * Creates a new {@link PartList} object using the properties of given one.
+     * Both lists share their parts until one of them modifies a part.
      *
      * @param origin The {@link PartList} to be cloned
      */
     PartList(PartList origin) {
-        this.parts = new ArrayList<>();
-        for (Part part : origin.parts) {
-            this.parts.add(new Part(part));
-        }
+        this.parts = origin.parts;
+        this.symbols = origin.symbols;
+        this.lowestOrder = origin.lowestOrder;
+        this.highestOrder = origin.highestOrder;
+        origin.edit = new Object();
     }
 
     /**
      * Empty constructor for {@link PartList}
      */
     PartList() {
-        this.parts = new ArrayList<>();
+        this.parts = PartTrie.EMPTY;
+        this.symbols = new SymbolTable();
     }
 
     /**
-     * Method to gather a Part object with given ID
+     * Method to gather a Part object with given ID.
+     * The returned part must not be modified directly.
      *
      * @param id ID of requested Part object
      * @return {@link Part} with given ID, if present
      */
     Part getPartWith(String id) {
-        for (Part p : parts) {
-            if (p.getId().equals(id)) {
-                return p;
+        int key = symbols.keyOf(id);
+        return key == SymbolTable.NO_KEY ? null : parts.get(key);
+    }
+
+    /**
+     * Method to gather a Part object with given key.
+     * The returned part must not be modified directly.
+     *
+     * @param key Interned key of requested Part object
+     * @return {@link Part} with given key, if present
+     */
+    Part getPartWith(int key) {
+        return parts.get(key);
+    }
+
+    /**
+     * Gives the part with given key, cloning it first
+     * if it is shared with another version.
+     */
+    private Part editablePartWith(int key) {
+        Part part = parts.get(key);
+        if (part.getOwner() != edit) {
+            part = new Part(part, edit);
+            parts = parts.with(part);
+        }
+
+        return part;
+    }
+
+    /**
+     * Getter of Version
+     *
+     * @return Number of this version
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Getter of Size
+     *
+     * @return Count of parts in this version
+     */
+    int size() {
+        return parts.size();
+    }
+
+    /**
+     * Counts the parent-child relations of this version
+     *
+     * @return Count of edges in the part graph
+     */
+    long edgeCount() {
+        long[] edges = new long[1];
+        parts.forEach(part -> edges[0] += part.getChildren().size());
+        return edges[0];
+    }
+
+    /**
+     * Finds the longest chain of parts from a top-level part down to a component.
+     * The parts are visited from the highest topological order downwards,
+     * so each child is done before any of its parents.
+     *
+     * @return Count of edges on the longest chain
+     */
+    int depth() {
+        ArrayList<Part> sorted = new ArrayList<>(parts.size());
+        parts.forEach(sorted::add);
+        sorted.sort(Comparator.comparingInt(Part::getOrder).reversed());
+
+        IntIntMap depths = new IntIntMap(sorted.size());
+        int deepest = 0;
+        for (Part part : sorted) {
+            int depth = 0;
+            IntIntMap children = part.getChildren();
+            for (int slot = children.next(-1); slot >= 0; slot = children.next(slot)) {
+                depth = Math.max(depth, depths.get(children.keyAt(slot)) + 1);
             }
+
+            depths.put(part.getKey(), depth);
+            deepest = Math.max(deepest, depth);
         }
-        return null;
+
+        return deepest;
     }
 
     /**
-     * Adds the given part in PartList
+     * Calls the given action for each part of this version.
+     * The parts must not be modified directly.
      *
-     * @param part Part to add
+     * @param action Action to call
      */
-    void addPart(Part part) {
-        parts.add(part);
+    void forEachPart(Consumer<Part> action) {
+        parts.forEach(action);
+    }
+
+    /**
+     * Getter of ChangedParts
+     *
+     * @return Keys of the parts whose children changed since this version was created
+     */
+    Set<Integer> getChangedParts() {
+        return changedParts;
     }
 
     /**
@@ -58,7 +209,9 @@ class PartList {
      */
     void addIfNotPresent(String id) {
         if (!contains(id)) {
-            parts.add(new Part(id, new HashMap<>()));
+            Part part = new Part(id, symbols.intern(id), edit);
+            part.setOrder(++highestOrder);
+            parts = parts.with(part);
         }
     }
 
@@ -75,133 +228,521 @@ class PartList {
     }
 
     /**
-     * Removes the given part from list.
+     * Adds a new part read from a snapshot after every part added before.
+     * Parts must be added in topological order and must not be present yet.
      *
-     * @param part Part to be removed
+     * @param id          ID of new part
+     * @param childCount  Count of children the part will get
+     * @param parentCount Count of parents the part will get
+     * @return The new part, only to be passed to {@code addLoadedChild()}
      */
-    void removePart(Part part) {
-        parts.remove(part);
+    Part addLoadedPart(String id, int childCount, int parentCount) {
+        Part part = new Part(id, symbols.intern(id), childCount, parentCount, edit);
+        part.setOrder(++highestOrder);
+        parts = parts.with(part);
+        return part;
     }
 
     /**
-     * Says whether a part with the given ID is present or not
+     * Adds a child read from a snapshot without checking for cycles.
+     * The child must have been added after the parent.
      *
-     * @param id ID to check
-     * @return true if such a part exist, otherwise false
+     * @param parent Parent part given by {@code addLoadedPart()}
+     * @param child  Child part given by {@code addLoadedPart()}
+     * @param amount How many of the child should be added
      */
-    boolean contains(String id) {
-        for (Part p : parts) {
-            if (p.getId().equals(id)) {
-                return true;
-            }
+    void addLoadedChild(Part parent, Part child, int amount) {
+        parent.addChild(child.getKey(), amount);
+        child.addParent(parent.getKey());
+    }
+
+    /**
+     * Removes the part with given ID from list.
+     * Its children lose it as a parent.
+     *
+     * @param id ID of the part to be removed
+     */
+    void removePart(String id) {
+        removePart(symbols.keyOf(id));
+    }
+
+    private void removePart(int key) {
+        removeAllChildren(key);
+        parts = parts.without(key);
+        changedParts.add(key);
+    }
+
+    /**
+     * Adds the part with given ID as child of the given part, unless
+     * that would cause a cycle. The child must already be present in the list.
+     *
+     * @param parentId ID of the parent part
+     * @param id       ID of the child part
+     * @param amount   How many of the child should be added
+     * @return false if the parent is reachable from the child, otherwise true.
+     * Always true while the checks are deferred.
+     */
+    boolean addChild(String parentId, String id, Integer amount) {
+        int parentKey = symbols.keyOf(parentId);
+        int key = symbols.keyOf(id);
+
+        boolean isNewEdge = getPartWith(parentKey).amountOf(key) == 0;
+        if (isNewEdge && uncheckedChildren != null) {
+            if (getPartWith(parentKey).getOrder() >= getPartWith(key).getOrder())
+                uncheckedChildren.add(key);
+        } else if (isNewEdge && !keepOrderWith(getPartWith(parentKey), getPartWith(key))) {
+            return false;
         }
-        return false;
+
+        editablePartWith(parentKey).addChild(key, amount);
+        changedParts.add(parentKey);
+        if (isNewEdge)
+            editablePartWith(key).addParent(parentKey);
+        return true;
     }
 
     /**
-     * Searches for an unwanted cycle through each part.
+     * Calls {@code addChild()} for each child in given {@link HashMap}
      *
-     * @return ID of the part that contains one or more of its ancestors
+     * @param parentId ID of the parent part
+     * @param children Every child to be added
+     * @return false if any of the children causes a cycle, otherwise true
      */
-    String cycleRoot() {
-        for (Part p : parts) {
-            String result = partIsFreeOf(p, "");
-            if (result != null) {
-                return result;
-            }
+    boolean addChildren(String parentId, HashMap<String, Integer> children) {
+        for (Map.Entry<String, Integer> child : children.entrySet()) {
+            if (!addChild(parentId, child.getKey(), child.getValue()))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds every given assembly at once with the checks deferred until all
+     * of them are added. Assemblies that are present already lose none of
+     * their children.
+     *
+     * @param assemblies Children of each assembly to add
+     * @return ID of a part on the first cycle found, or null if there is none
+     * or the checks stay deferred
+     */
+    String addAssemblies(Map<String, HashMap<String, Integer>> assemblies) {
+        boolean wasDeferring = uncheckedChildren != null;
+        if (!wasDeferring)
+            deferChecks();
+
+        for (Map.Entry<String, HashMap<String, Integer>> assembly : assemblies.entrySet()) {
+            addIfNotPresent(assembly.getKey());
+            addAllIfNotPresent(assembly.getValue().keySet());
+            addChildren(assembly.getKey(), assembly.getValue());
+        }
+
+        return wasDeferring ? null : checkDeferred();
+    }
+
+    /**
+     * Defers the cycle checks and the cleanup of this version. New children
+     * are added without keeping the topological order, and components left
+     * without parents stay until {@code checkDeferred()} is called.
+     */
+    void deferChecks() {
+        uncheckedChildren = new ArrayList<>();
+    }
+
+    /**
+     * Runs the deferred checks. Only the parts below the new edges that
+     * break the topological order are searched for a cycle and renumbered.
+     * If there is no cycle, every change is checked at once from now on
+     * and each component without parents is removed.
+     *
+     * @return ID of a part on the first cycle found, or null if there is none
+     */
+    String checkDeferred() {
+        if (!uncheckedChildren.isEmpty()) {
+            String cycle = reorderBelow(uncheckedChildren);
+            if (cycle != null)
+                return cycle;
         }
 
+        uncheckedChildren = null;
+        postRemovalCleanup();
         return null;
     }
 
-    private String partIsFreeOf(Part part, String parents) {
-        for (String child : part.getChildren().keySet()) {
-            if (parents.contains(child)) {
-                return child;
+    /**
+     * Walks every part below the given ones depth first and gives them new
+     * orders after all others in reverse postorder. Each cycle through
+     * the walked parts is found as an edge back to a part still on the path.
+     *
+     * @param keys Keys of the parts to start from
+     * @return ID of a part on the first cycle found, or null if there is none
+     */
+    private String reorderBelow(ArrayList<Integer> keys) {
+        IntIntMap colors = new IntIntMap();
+        ArrayList<Part> postorder = new ArrayList<>();
+        ArrayDeque<Part> path = new ArrayDeque<>();
+        ArrayDeque<Integer> slots = new ArrayDeque<>();
+        for (int key : keys) {
+            if (colors.get(key) != UNVISITED || getPartWith(key) == null)
+                continue;
+
+            colors.put(key, ON_PATH);
+            path.push(getPartWith(key));
+            slots.push(-1);
+            while (!path.isEmpty()) {
+                Part part = path.peek();
+                IntIntMap children = part.getChildren();
+                int slot = children.next(slots.pop());
+                if (slot < 0) {
+                    colors.put(part.getKey(), DONE);
+                    postorder.add(path.pop());
+                    continue;
+                }
+                slots.push(slot);
+
+                int childKey = children.keyAt(slot);
+                int color = colors.get(childKey);
+                if (color == ON_PATH)
+                    return getPartWith(childKey).getId();
+
+                if (color == UNVISITED) {
+                    colors.put(childKey, ON_PATH);
+                    path.push(getPartWith(childKey));
+                    slots.push(-1);
+                }
             }
+        }
 
-            String nParents = parents + "," + child;
-            String result = partIsFreeOf(getPartWith(child), nParents);
-            if (result != null)
-                return result;
+        int order = highestOrder + postorder.size();
+        for (Part part : postorder) {
+            editablePartWith(part.getKey()).setOrder(order--);
         }
+        highestOrder += postorder.size();
 
         return null;
     }
 
     /**
-     * Removes each assembly without children
-     * and each component without parents
+     * Removes the given amount of the child with given ID from the given part
+     *
+     * @param parentId ID of the parent part
+     * @param id       ID of the child part
+     * @param amount   How many of the child should be removed
+     * @return true if removal happened, otherwise false
      */
-    void postRemovalCleanup() {
-        cleanup();
-        cleanup();
+    boolean removeChild(String parentId, String id, int amount) {
+        int parentKey = symbols.keyOf(parentId);
+        int key = symbols.keyOf(id);
+        if (key == SymbolTable.NO_KEY || getPartWith(parentKey).amountOf(key) < amount)
+            return false;
+
+        Part parent = editablePartWith(parentKey);
+        parent.removeChild(key, amount);
+        changedParts.add(parentKey);
+        if (parent.amountOf(key) == 0) {
+            Part child = editablePartWith(key);
+            child.removeParent(parentKey);
+            if (child.getParentCount() == 0)
+                orphans.add(key);
+            if (parent.getChildren().isEmpty() && parent.getParentCount() == 0)
+                orphans.add(parentKey);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes every child of the part with given ID
+     *
+     * @param parentId ID of the parent part
+     */
+    void removeAllChildren(String parentId) {
+        removeAllChildren(symbols.keyOf(parentId));
     }
 
-    private void cleanup() {
-        ArrayList<Part> partsToRemove = new ArrayList<>();
+    private void removeAllChildren(int parentKey) {
+        Part parent = getPartWith(parentKey);
+        IntIntMap children = parent.getChildren();
+        if (children.isEmpty())
+            return;
 
-        for (Part part : parts) {
-            if (part.getType() == Part.Type.ASSEMBLY && part.getChildren().isEmpty())
-                partsToRemove.add(part);
-            else if (part.getType() == Part.Type.COMPONENT && !partHasParents(part))
-                partsToRemove.add(part);
+        for (int slot = children.next(-1); slot >= 0; slot = children.next(slot)) {
+            int key = children.keyAt(slot);
+            Part child = editablePartWith(key);
+            child.removeParent(parentKey);
+            if (child.getParentCount() == 0)
+                orphans.add(key);
         }
 
-        for (Part part : partsToRemove) {
-            parts.remove(part);
+        editablePartWith(parentKey).removeAllChildren();
+        if (parent.getParentCount() == 0)
+            orphans.add(parentKey);
+        changedParts.add(parentKey);
+    }
+
+    /**
+     * Says whether a part with the given ID is present or not
+     *
+     * @param id ID to check
+     * @return true if such a part exist, otherwise false
+     */
+    boolean contains(String id) {
+        return getPartWith(id) != null;
+    }
+
+    /**
+     * Keeps the topological order valid for a new edge from parent to child.
+     * Only the parts whose order lies between both ends are visited.
+     *
+     * @param parent Parent end of the new edge
+     * @param child  Child end of the new edge
+     * @return false if the parent is reachable from the child, otherwise true
+     */
+    private boolean keepOrderWith(Part parent, Part child) {
+        if (parent == child)
+            return false;
+
+        if (parent.getOrder() < child.getOrder())
+            return true;
+
+        // A part without parents or without children can't be on a cycle
+        if (parent.getParents().isEmpty()) {
+            editablePartWith(parent.getKey()).setOrder(--lowestOrder);
+            return true;
+        }
+        if (child.getChildren().isEmpty()) {
+            editablePartWith(child.getKey()).setOrder(++highestOrder);
+            return true;
         }
+
+        ArrayList<Part> forward = new ArrayList<>();
+        if (!visitChildren(child, parent, new IntIntMap(), forward))
+            return false;
+
+        ArrayList<Part> backward = new ArrayList<>();
+        visitParents(parent, child.getOrder(), new IntIntMap(), backward);
+
+        reorder(backward, forward);
+        return true;
     }
 
     /**
-     * Searches through children of each part for the given ID
+     * Collects every part below the given one that is ordered before the target.
+     * The search keeps its own stack, so it handles parts of any depth.
+     *
+     * @return false if the target was reached, which means a cycle
+     */
+    private boolean visitChildren(Part part, Part target, IntIntMap visited, ArrayList<Part> out) {
+        ArrayDeque<Part> stack = new ArrayDeque<>();
+        visited.put(part.getKey(), 1);
+        stack.push(part);
+        while (!stack.isEmpty()) {
+            Part current = stack.pop();
+            out.add(current);
+
+            IntIntMap children = current.getChildren();
+            for (int slot = children.next(-1); slot >= 0; slot = children.next(slot)) {
+                Part child = getPartWith(children.keyAt(slot));
+                if (child == target)
+                    return false;
+
+                if (!visited.containsKey(child.getKey()) && child.getOrder() < target.getOrder()) {
+                    visited.put(child.getKey(), 1);
+                    stack.push(child);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Collects every part above the given one that is ordered after the lower bound
+     */
+    private void visitParents(Part part, int lowerBound, IntIntMap visited, ArrayList<Part> out) {
+        ArrayDeque<Part> stack = new ArrayDeque<>();
+        visited.put(part.getKey(), 1);
+        stack.push(part);
+        while (!stack.isEmpty()) {
+            Part current = stack.pop();
+            out.add(current);
+
+            IntIntMap parents = current.getParents();
+            for (int slot = parents.next(-1); slot >= 0; slot = parents.next(slot)) {
+                Part parent = getPartWith(parents.keyAt(slot));
+                if (!visited.containsKey(parent.getKey()) && parent.getOrder() > lowerBound) {
+                    visited.put(parent.getKey(), 1);
+                    stack.push(parent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the orders of both given part sets out again, so that
+     * every part of the first set comes before each part of the second one.
+     */
+    private void reorder(ArrayList<Part> first, ArrayList<Part> second) {
+        Comparator<Part> byOrder = Comparator.comparingInt(Part::getOrder);
+        first.sort(byOrder);
+        second.sort(byOrder);
+
+        ArrayList<Part> affected = new ArrayList<>(first);
+        affected.addAll(second);
+
+        int[] orders = new int[affected.size()];
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = affected.get(i).getOrder();
+        }
+        Arrays.sort(orders);
+
+        for (int i = 0; i < orders.length; i++) {
+            editablePartWith(affected.get(i).getKey()).setOrder(orders[i]);
+        }
+    }
+
+    /**
+     * Removes each component without parents, unless the checks are deferred.
+     * Only the parts whose parent count dropped to zero or that became
+     * empty are visited, so the cost follows what is actually removed.
+     * A queued part that got a parent or a child again since is kept.
+     */
+    void postRemovalCleanup() {
+        if (uncheckedChildren != null)
+            return;
+
+        while (!orphans.isEmpty()) {
+            Part part = getPartWith(orphans.poll());
+            if (part != null && part.getType() == Part.Type.COMPONENT && !partHasParents(part))
+                removePart(part.getKey());
+        }
+    }
+
+    /**
+     * Says whether the given part is a direct child of any other part
      *
      * @param  part Part to search for
      * @return true if any other part has the given ID as child
      */
     boolean partHasParents(Part part) {
-        String id = part.getId();
-        return parts.stream().anyMatch(p -> p.getChildren().keySet().stream().anyMatch(s -> s.equals(id)));
+        return part.getParentCount() > 0;
     }
 
     /**
-     * Recursively goes through child parts and counts
-     * amount of each part of the given type.
+     * Counts the total amount of each direct and indirect child
+     * of the given type. The parts below the starting part are visited
+     * in topological order, so each shared part is expanded only once.
+     * Large explosions are spread over every core.
      *
      * @param part Starting part
      * @param type Type of parts that should be counted
      * @return Total count of each part with type
      */
-    HashMap<Part, Integer> childrenOf(Part part, Part.Type type) {
-        HashMap<Part, Integer> out = new HashMap<>();
-        for (Map.Entry<String, Integer> entry : part.getChildren().entrySet()) {
-            Part child = getPartWith(entry.getKey());
-            if (child.getType() == type) {
-                if (out.containsKey(child))
-                    out.put(child, out.get(child) + entry.getValue());
-                else
-                    out.put(child, entry.getValue());
-            }
+    HashMap<String, Integer> childrenOf(Part part, Part.Type type) {
+        IntIntMap pendingParents = countParentsBelow(part);
+        if (pendingParents.size() >= ParallelExplosion.THRESHOLD)
+            return new ParallelExplosion(this, part, pendingParents).run(type);
+
+        IntIntMap totals = new IntIntMap(pendingParents.size() + 1);
+        ArrayDeque<Part> ready = new ArrayDeque<>();
+        ready.add(part);
+        totals.put(part.getKey(), 1);
 
-            if (!child.getChildren().isEmpty())
-                merge(out, childrenOf(child, type), entry.getValue());
+        HashMap<String, Integer> out = new HashMap<>();
+        while (!ready.isEmpty()) {
+            Part current = ready.poll();
+            int total = totals.get(current.getKey());
+            if (current != part && current.getType() == type)
+                out.put(current.getId(), total);
+
+            IntIntMap children = current.getChildren();
+            for (int slot = children.next(-1); slot >= 0; slot = children.next(slot)) {
+                int key = children.keyAt(slot);
+                totals.add(key, total * children.valueAt(slot));
+
+                if (pendingParents.add(key, -1) == 0)
+                    ready.add(getPartWith(key));
+            }
         }
 
         return out;
+    }
+
+    /**
+     * Counts the total amount of the given part in each direct and indirect
+     * parent. The parts above the given part are visited in reverse
+     * topological order, so only they are visited and each of them once.
+     *
+     * @param part Part whose uses are counted
+     * @return Total count of the part in each of its ancestors
+     */
+    HashMap<String, Integer> parentsOf(Part part) {
+        IntIntMap pendingChildren = countChildrenAbove(part);
+        IntIntMap totals = new IntIntMap(pendingChildren.size() + 1);
+        ArrayDeque<Part> ready = new ArrayDeque<>();
+        ready.add(part);
+        totals.put(part.getKey(), 1);
+
+        HashMap<String, Integer> out = new HashMap<>();
+        while (!ready.isEmpty()) {
+            Part current = ready.poll();
+            int total = totals.get(current.getKey());
+            if (current != part)
+                out.put(current.getId(), total);
+
+            IntIntMap parents = current.getParents();
+            for (int slot = parents.next(-1); slot >= 0; slot = parents.next(slot)) {
+                int key = parents.keyAt(slot);
+                Part parent = getPartWith(key);
+                totals.add(key, total * parent.amountOf(current.getKey()));
+
+                if (pendingChildren.add(key, -1) == 0)
+                    ready.add(parent);
+            }
+        }
 
+        return out;
     }
 
-    private void merge(HashMap<Part, Integer> left,
-                       HashMap<Part, Integer> right,
-                       Integer multiplier) {
-        for (Map.Entry<Part, Integer> entry : right.entrySet()) {
-            Part key = entry.getKey();
-            if (left.containsKey(key)) {
-                left.put(key, left.get(key) + multiplier * entry.getValue());
-                continue;
+    /**
+     * Counts, for each part above the given one, how many of its
+     * children the given part is reachable from
+     */
+    private IntIntMap countChildrenAbove(Part part) {
+        IntIntMap childCounts = new IntIntMap();
+        ArrayDeque<Part> stack = new ArrayDeque<>();
+        stack.push(part);
+        while (!stack.isEmpty()) {
+            Part current = stack.pop();
+            IntIntMap parents = current.getParents();
+            for (int slot = parents.next(-1); slot >= 0; slot = parents.next(slot)) {
+                int key = parents.keyAt(slot);
+                if (childCounts.add(key, 1) == 1)
+                    stack.push(getPartWith(key));
             }
+        }
 
-            left.put(key, multiplier * entry.getValue());
+        return childCounts;
+    }
+
+    /**
+     * Counts, for each part below the given one, how many of its
+     * parents are reachable from the given part
+     */
+    private IntIntMap countParentsBelow(Part part) {
+        IntIntMap parentCounts = new IntIntMap();
+        ArrayDeque<Part> stack = new ArrayDeque<>();
+        stack.push(part);
+        while (!stack.isEmpty()) {
+            Part current = stack.pop();
+            IntIntMap children = current.getChildren();
+            for (int slot = children.next(-1); slot >= 0; slot = children.next(slot)) {
+                int key = children.keyAt(slot);
+                if (parentCounts.add(key, 1) == 1)
+                    stack.push(getPartWith(key));
+            }
         }
+
+        return parentCounts;
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,29 @@
 package com.cameloper.BlueprintZ;
 
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.List;
-import java.util.stream.Collectors;
 
+/**
+ * Owner of the current version of the part graph.
+ * <p>
+ * Writers are serialized by the monitor of the manager. Each of them
+ * modifies a private copy and publishes it as the new current version
+ * at once. Readers take the current version without any lock and
+ * answer their query from it alone.
+ * <p>
+ * While a transaction is open, every writer modifies its working version
+ * instead, with the cycle checks and the cleanup deferred until it is
+ * committed. Readers keep seeing the last committed version, including
+ * the queries made within the transaction: its working version is not
+ * checked yet and may hold a cycle, which no explosion could walk.
+ * The transaction belongs to the manager as a whole, so the server
+ * does not offer it to its clients.
+ */
 class PartManager {
 
     /**
@@ -12,9 +31,113 @@ class PartManager {
      */
     static final PartManager MAIN = new PartManager();
     private static final String EMPTY_STRING = "EMPTY";
-    private PartList list = new PartList();
+    /**
+     * Current version. It is never modified after being published.
+     */
+    private volatile PartList list = new PartList();
+    /**
+     * Working version of the open transaction, null if there is none
+     */
+    private PartList transaction;
+    private final ExplosionCache explosionCache = new ExplosionCache();
+
+    /**
+     * Getter of ExplosionCache
+     *
+     * @return Cache of the exploded child totals of assemblies
+     */
+    ExplosionCache getExplosionCache() {
+        return explosionCache;
+    }
+
+    /**
+     * Getter of List
+     *
+     * @return Current version of the part graph. It must not be modified.
+     */
+    PartList getList() {
+        return list;
+    }
+
+    /**
+     * Gives the version a writer modifies: the working version of
+     * the open transaction, or else a new copy of the current one
+     */
+    private PartList workingList() {
+        return transaction != null ? transaction : new PartList(list);
+    }
+
+    /**
+     * Makes the given version the current one and drops
+     * every cached explosion that it invalidates.
+     * The working version of a transaction waits for it to be committed.
+     */
+    private void commit(PartList newList) {
+        if (newList == transaction)
+            return;
+
+        explosionCache.invalidate(newList.getChangedParts(), newList);
+        list = newList;
+    }
+
+    /**
+     * Opens a transaction on a working version of the current part graph
+     *
+     * @return Result without a value
+     */
+    synchronized Result<Void> beginTransaction() {
+        if (transaction != null)
+            return new Result<>(null, new Error(Error.Type.TRANSACTION_ALREADY_OPEN));
+
+        transaction = new PartList(list);
+        transaction.deferChecks();
+        return new Result<>(null, null);
+    }
 
-    private Result<Part> getAssemblyWith(String id) {
+    /**
+     * Runs the deferred checks on the working version and makes it the
+     * current one. If it has a cycle, the transaction stays open, so that
+     * the cycle can be removed or the transaction rolled back.
+     *
+     * @return Result without a value
+     */
+    synchronized Result<Void> commitTransaction() {
+        if (transaction == null)
+            return new Result<>(null, new Error(Error.Type.NO_TRANSACTION));
+
+        String cycle = transaction.checkDeferred();
+        if (cycle != null)
+            return new Result<>(null, new Error(Error.Type.NOT_ACYCLIC, cycle));
+
+        PartList newList = transaction;
+        transaction = null;
+        commit(newList);
+        return new Result<>(null, null);
+    }
+
+    /**
+     * Drops the working version of the open transaction
+     *
+     * @return Result without a value
+     */
+    synchronized Result<Void> rollbackTransaction() {
+        if (transaction == null)
+            return new Result<>(null, new Error(Error.Type.NO_TRANSACTION));
+
+        transaction = null;
+        return new Result<>(null, null);
+    }
+
+    /**
+     * Says whether a transaction is open
+     *
+     * @return true if a transaction is open, otherwise false
+     */
+    synchronized boolean isInTransaction() {
+        return transaction != null;
+    }
+
+    private Result<Part> getAssemblyWith(PartList list, String id) {
         if (!list.contains(id))
             return new Result<>(null, new Error(Error.Type.PART_DOESNT_EXIST, id));
 
@@ -33,30 +156,50 @@ class PartManager {
      * @param children IDs of the children Parts
      * @return Result without a value
      */
-    Result<Void> addAssemblyWith(String id, HashMap<String, Integer> children) {
-        Part existingPart = list.getPartWith(id);
+    synchronized Result<Void> addAssemblyWith(String id, HashMap<String, Integer> children) {
+        PartList newList = workingList();
+        Part existingPart = newList.getPartWith(id);
         if (existingPart != null && existingPart.getType() == Part.Type.ASSEMBLY) {
             return new Result<>(null, new Error(Error.Type.ASSEMBLY_ALREADY_EXISTS, id));
         }
 
-        PartList newList = new PartList(list);
 
-        if (existingPart == null) {
-            newList.addPart(new Part(id, children));
-        } else {
-            newList.getPartWith(id).addChildren(children);
+        newList.addIfNotPresent(id);
+        newList.addAllIfNotPresent(children.keySet());
+        if (!newList.addChildren(id, children)) {
+            return new Result<>(null, new Error(Error.Type.NOT_ACYCLIC, id));
         }
 
-        newList.addAllIfNotPresent(children.keySet());
+        commit(newList);
+        return new Result<>(null, null);
 
-        String cycleRoot = newList.cycleRoot();
-        if (cycleRoot != null) {
-            return new Result<>(null, new Error(Error.Type.NOT_ACYCLIC, cycleRoot));
+    }
+
+    /**
+     * Adds every given assembly as a unit. The combined part graph is
+     * checked for cycles once, and nothing is added if it has any.
+     * Not available during a transaction, whose changes are journaled one by one.
+     *
+     * @param assemblies Children of each new assembly, by its unique ID
+     * @return Result without a value
+     */
+    synchronized Result<Void> addAssembliesWith(Map<String, HashMap<String, Integer>> assemblies) {
+        if (transaction != null)
+            return new Result<>(null, new Error(Error.Type.TRANSACTION_ALREADY_OPEN));
+
+        for (String id : assemblies.keySet()) {
+            Part existingPart = list.getPartWith(id);
+            if (existingPart != null && existingPart.getType() == Part.Type.ASSEMBLY)
+                return new Result<>(null, new Error(Error.Type.ASSEMBLY_ALREADY_EXISTS, id));
         }
 
-        list = newList;
-        return new Result<>(null, null);
+        PartList newList = new PartList(list);
+        String cycle = newList.addAssemblies(assemblies);
+        if (cycle != null)
+            return new Result<>(null, new Error(Error.Type.NOT_ACYCLIC, cycle));
 
+        commit(newList);
+        return new Result<>(null, null);
     }
 
     /**
@@ -65,20 +208,22 @@ class PartManager {
      * @param id ID of the part to remove
      * @return Result without value
      */
-    Result<Void> removeAssemblyWith(String id) {
-        Result<Part> partResult = getAssemblyWith(id);
+    synchronized Result<Void> removeAssemblyWith(String id) {
+        PartList newList = workingList();
+        Result<Part> partResult = getAssemblyWith(newList, id);
         if (!partResult.isSuccessful())
             return new Result<>(null, partResult.error);
         Part part = partResult.value;
 
-        if (list.partHasParents(part)) {
-            part.removeAllChildren();
+        if (newList.partHasParents(part)) {
+            newList.removeAllChildren(id);
         } else {
-            list.removePart(part);
+            newList.removePart(id);
         }
 
-        list.postRemovalCleanup();
+        newList.postRemovalCleanup();
 
+        commit(newList);
         return new Result<>(null, null);
     }
 
@@ -89,6 +234,7 @@ class PartManager {
      * @return Result with string value
      */
     Result<String> printAssemblyWith(String id) {
+        PartList list = this.list;
         if (!list.contains(id))
             return new Result<>(null, new Error(Error.Type.PART_DOESNT_EXIST, id));
 
@@ -96,48 +242,85 @@ class PartManager {
         if (part.getType() == Part.Type.COMPONENT)
             return new Result<>(Part.Type.COMPONENT.toString(), null);
 
-        HashMap<String, Integer> children = part.getChildren();
-        List<String> childrenSorted = children.keySet().stream().sorted().collect(Collectors.toList());
+        String out = explosionCache.getRendering(part.getKey(), Command.PRINT_ASSEMBLY, list.getVersion());
+        if (out == null) {
+            out = buildChildrenString(list, part);
+            explosionCache.putRendering(part.getKey(), Command.PRINT_ASSEMBLY, out, list.getVersion());
+        }
 
-        StringBuilder out = new StringBuilder();
-        for (int i = 0; i < childrenSorted.size(); i++) {
-            String child = childrenSorted.get(i);
-            Integer amount = children.get(child);
+        return new Result<>(out, null);
+    }
 
-            out.append(String.format("%s%s%d", child, Main.Defaults.NAME_AMOUNT_SEPARATOR, amount));
+    private String buildChildrenString(PartList list, Part part) {
+        IntIntMap childAmounts = part.getChildren();
+        ArrayList<Part> children = new ArrayList<>(childAmounts.size());
+        for (int slot = childAmounts.next(-1); slot >= 0; slot = childAmounts.next(slot)) {
+            children.add(list.getPartWith(childAmounts.keyAt(slot)));
+        }
+        children.sort(Comparator.comparing(Part::getId));
 
-            if (i != childrenSorted.size() - 1) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < children.size(); i++) {
+            Part child = children.get(i);
+            if (i != 0)
                 out.append(Main.Defaults.PART_SEPARATOR);
-            }
+
+            out.append(child.getId())
+                    .append(Main.Defaults.NAME_AMOUNT_SEPARATOR)
+                    .append(part.amountOf(child.getKey()));
         }
 
-        return new Result<>(out.toString(), null);
+        return out.toString();
     }
 
-    private String sortAndBuildString(HashMap<Part, Integer> parts) {
-        List<Part> sortedParts = parts.entrySet().stream().sorted((o1, o2) -> {
+    private String sortAndBuildString(HashMap<String, Integer> parts) {
+        ArrayList<Map.Entry<String, Integer>> sortedParts = new ArrayList<>(parts.entrySet());
+        sortedParts.sort((o1, o2) -> {
             if (!o1.getValue().equals(o2.getValue()))
                 return o2.getValue().compareTo(o1.getValue());
             else
-                return o1.getKey().getId().compareTo(o2.getKey().getId());
-        }).map(Map.Entry::getKey
-        ).collect(Collectors.toList());
+                return o1.getKey().compareTo(o2.getKey());
+        });
 
         StringBuilder out = new StringBuilder();
         for (int i = 0; i < sortedParts.size(); i++) {
-            Part assembly = sortedParts.get(i);
-            out.append(String.format("%s%s%d",
-                    assembly.getId(),
-                    Main.Defaults.NAME_AMOUNT_SEPARATOR,
-                    parts.get(assembly)));
-
-            if (i != sortedParts.size() - 1)
+            Map.Entry<String, Integer> part = sortedParts.get(i);
+            if (i != 0)
                 out.append(Main.Defaults.PART_SEPARATOR);
+
+            out.append(part.getKey())
+                    .append(Main.Defaults.NAME_AMOUNT_SEPARATOR)
+                    .append(part.getValue().intValue());
         }
 
         return out.toString();
     }
 
+    /**
+     * Gives the rendered totals of the given type below the given assembly,
+     * building them only if no valid answer is cached
+     */
+    private String explosionStringOf(PartList list, Part part, Part.Type type, Command command) {
+        String out = explosionCache.getRendering(part.getKey(), command, list.getVersion());
+        if (out == null) {
+            HashMap<String, Integer> totals = explosionOf(list, part, type);
+            out = totals.isEmpty() ? EMPTY_STRING : sortAndBuildString(totals);
+            explosionCache.putRendering(part.getKey(), command, out, list.getVersion());
+        }
+
+        return out;
+    }
+
+    private HashMap<String, Integer> explosionOf(PartList list, Part part, Part.Type type) {
+        HashMap<String, Integer> totals = explosionCache.get(part.getKey(), type, list.getVersion());
+        if (totals == null) {
+            totals = list.childrenOf(part, type);
+            explosionCache.put(part.getKey(), type, totals, list.getVersion());
+        }
+
+        return totals;
+    }
+
     /**
      * Gives every direct and indirect child-assembly of the part
      * with given ID
@@ -146,16 +329,13 @@ class PartManager {
      * @return Result with String
      */
     Result<String> getAssembliesOf(String id) {
-        Result<Part> partResult = getAssemblyWith(id);
+        PartList list = this.list;
+        Result<Part> partResult = getAssemblyWith(list, id);
         if (!partResult.isSuccessful())
             return new Result<>(null, partResult.error);
         Part part = partResult.value;
 
-        HashMap<Part, Integer> assemblies = list.childrenOf(part, Part.Type.ASSEMBLY);
-        if (assemblies.isEmpty())
-            return new Result<>(EMPTY_STRING, null);
-
-        String out = sortAndBuildString(assemblies);
+        String out = explosionStringOf(list, part, Part.Type.ASSEMBLY, Command.GET_ASSEMBLIES);
 
         return new Result<>(out, null);
     }
@@ -168,16 +348,34 @@ class PartManager {
      * @return Result with String
      */
     Result<String> getComponentsOf(String id) {
-        Result<Part> partResult = getAssemblyWith(id);
+        PartList list = this.list;
+        Result<Part> partResult = getAssemblyWith(list, id);
         if (!partResult.isSuccessful())
             return new Result<>(null, partResult.error);
         Part part = partResult.value;
 
-        HashMap<Part, Integer> components = list.childrenOf(part, Part.Type.COMPONENT);
-        if (components.isEmpty())
+        String out = explosionStringOf(list, part, Part.Type.COMPONENT, Command.GET_COMPONENTS);
+
+        return new Result<>(out, null);
+    }
+
+    /**
+     * Gives every direct and indirect parent of the part with given ID
+     * together with the total amount of the part in it
+     *
+     * @param id ID of part whose uses will be inspected
+     * @return Result with String
+     */
+    Result<String> getWhereUsed(String id) {
+        PartList list = this.list;
+        if (!list.contains(id))
+            return new Result<>(null, new Error(Error.Type.PART_DOESNT_EXIST, id));
+
+        HashMap<String, Integer> parents = list.parentsOf(list.getPartWith(id));
+        if (parents.isEmpty())
             return new Result<>(EMPTY_STRING, null);
 
-        String out = sortAndBuildString(components);
+        String out = sortAndBuildString(parents);
 
         return new Result<>(out, null);
     }
@@ -191,8 +389,8 @@ class PartManager {
      * @param amount Amount of source part in target part
      * @return Result without value
      */
-    Result<Void> addPart(String toId, String id, Integer amount) {
-        PartList newList = new PartList(list);
+    synchronized Result<Void> addPart(String toId, String id, Integer amount) {
+        PartList newList = workingList();
         if (!newList.contains(toId))
             return new Result<>(null, new Error(Error.Type.PART_DOESNT_EXIST, toId));
         Part targetPart = newList.getPartWith(toId);
@@ -200,13 +398,11 @@ class PartManager {
             return new Result<>(null, new Error(Error.Type.PART_IS_COMPONENT, toId));
 
         newList.addIfNotPresent(id);
-        targetPart.addChild(id, amount);
-        String cycleRoot = newList.cycleRoot();
-        if (cycleRoot != null) {
-            return new Result<>(null, new Error(Error.Type.NOT_ACYCLIC, cycleRoot));
+        if (!newList.addChild(toId, id, amount)) {
+            return new Result<>(null, new Error(Error.Type.NOT_ACYCLIC, toId));
         }
 
-        list = newList;
+        commit(newList);
         return new Result<>(null, null);
     }
 
@@ -219,17 +415,58 @@ class PartManager {
      * @param amount Amount of parts to remove
      * @return Result without value
      */
-    Result<Void> removePart(String fromId, String id, Integer amount) {
-        Result<Part> partResult = getAssemblyWith(fromId);
+    synchronized Result<Void> removePart(String fromId, String id, Integer amount) {
+        PartList newList = workingList();
+        Result<Part> partResult = getAssemblyWith(newList, fromId);
         if (!partResult.isSuccessful())
             return new Result<>(null, partResult.error);
-        Part part = partResult.value;
 
-        if (part.removeChild(id, amount)) {
-            list.postRemovalCleanup();
-            return new Result<>(null, null);
-        } else {
+        if (!newList.removeChild(fromId, id, amount))
             return new Result<>(null, new Error(Error.Type.NO_ENOUGH_PARTS, amount.toString()));
+
+        newList.postRemovalCleanup();
+
+        commit(newList);
+        return new Result<>(null, null);
+    }
+
+    /**
+     * Writes the current part graph to a snapshot file
+     *
+     * @param path Path of the snapshot file
+     * @return Result without value
+     */
+    Result<Void> save(String path) {
+        try {
+            Snapshot.write(list, Paths.get(path));
+        } catch (IOException | InvalidPathException ex) {
+            return new Result<>(null, new Error(Error.Type.FILE_NOT_WRITABLE, path));
+        }
+
+        return new Result<>(null, null);
+    }
+
+    /**
+     * Replaces the current part graph with the one in a snapshot file.
+     * Not available during a transaction.
+     *
+     * @param path Path of the snapshot file
+     * @return Result without value
+     */
+    synchronized Result<Void> load(String path) {
+        if (transaction != null)
+            return new Result<>(null, new Error(Error.Type.TRANSACTION_ALREADY_OPEN));
+
+        PartList newList;
+        try {
+            newList = Snapshot.read(Paths.get(path));
+        } catch (IOException | InvalidPathException ex) {
+            return new Result<>(null, new Error(Error.Type.FILE_NOT_READABLE, path));
         }
+
+        // Keys of the new version are interned anew, so no cached entry stays valid
+        explosionCache.clear(newList.getVersion());
+        list = newList;
+        return new Result<>(null, null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,200 @@
+package com.cameloper.BlueprintZ;
+
+import java.util.function.Consumer;
+
+/**
+ * Persistent trie of parts, indexed by their interned keys.
+ * Every modification returns a new trie that shares
+ * each untouched node with the original one.
+ */
+final class PartTrie {
+    /**
+     * Trie without any parts
+     */
+    static final PartTrie EMPTY = new PartTrie(null, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Object root;
+    private final int size;
+
+    private PartTrie(Object root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Getter of Size
+     *
+     * @return Count of parts in the trie
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gives the part with given key
+     *
+     * @param key Key of requested part
+     * @return {@link Part} with given key, if present
+     */
+    Part get(int key) {
+        Object slot = root;
+        int shift = 0;
+        while (slot instanceof Node) {
+            Node node = (Node) slot;
+            int bit = bitFor(key, shift);
+            if ((node.bitmap & bit) == 0)
+                return null;
+
+            slot = node.slots[node.index(bit)];
+            shift += BITS;
+        }
+
+        if (slot != null && ((Part) slot).getKey() == key)
+            return (Part) slot;
+
+        return null;
+    }
+
+    /**
+     * Gives a trie that contains the given part in place
+     * of any other part with the same key
+     *
+     * @param part Part to put in
+     * @return New trie
+     */
+    PartTrie with(Part part) {
+        int newSize = get(part.getKey()) == null ? size + 1 : size;
+        return new PartTrie(with(root, part, 0), newSize);
+    }
+
+    /**
+     * Gives a trie without the part with given key
+     *
+     * @param key Key of the part to leave out
+     * @return New trie, or this one if no such part is present
+     */
+    PartTrie without(int key) {
+        if (get(key) == null)
+            return this;
+
+        return new PartTrie(without(root, key, 0), size - 1);
+    }
+
+    /**
+     * Calls the given action for each part in the trie
+     *
+     * @param action Action to call
+     */
+    void forEach(Consumer<Part> action) {
+        forEach(root, action);
+    }
+
+    private static int bitFor(int key, int shift) {
+        return 1 << ((key >>> shift) & MASK);
+    }
+
+    private static Object with(Object slot, Part part, int shift) {
+        if (slot == null)
+            return part;
+
+        if (slot instanceof Part) {
+            Part present = (Part) slot;
+            if (present.getKey() == part.getKey())
+                return part;
+
+            return pair(present, part, shift);
+        }
+
+        Node node = (Node) slot;
+        int bit = bitFor(part.getKey(), shift);
+        int index = node.index(bit);
+        if ((node.bitmap & bit) == 0)
+            return node.inserted(bit, index, part);
+
+        return node.replaced(index, with(node.slots[index], part, shift + BITS));
+    }
+
+    private static Object pair(Part first, Part second, int shift) {
+        int firstBit = bitFor(first.getKey(), shift);
+        int secondBit = bitFor(second.getKey(), shift);
+        if (firstBit == secondBit)
+            return new Node(firstBit, new Object[]{pair(first, second, shift + BITS)});
+
+        Object[] slots = Integer.compareUnsigned(firstBit, secondBit) < 0
+                ? new Object[]{first, second}
+                : new Object[]{second, first};
+        return new Node(firstBit | secondBit, slots);
+    }
+
+    private static Object without(Object slot, int key, int shift) {
+        if (slot instanceof Part)
+            return null;
+
+        Node node = (Node) slot;
+        int bit = bitFor(key, shift);
+        int index = node.index(bit);
+        Object newSlot = without(node.slots[index], key, shift + BITS);
+        if (newSlot != null)
+            return node.replaced(index, newSlot);
+
+        if (node.slots.length == 1)
+            return null;
+
+        Node removed = node.removed(bit, index);
+        if (removed.slots.length == 1 && removed.slots[0] instanceof Part)
+            return removed.slots[0];
+
+        return removed;
+    }
+
+    private static void forEach(Object slot, Consumer<Part> action) {
+        if (slot instanceof Part) {
+            action.accept((Part) slot);
+        } else if (slot instanceof Node) {
+            for (Object child : ((Node) slot).slots) {
+                forEach(child, action);
+            }
+        }
+    }
+
+    /**
+     * Inner node of the trie. Each slot holds a {@link Part} or another node.
+     */
+    private static final class Node {
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        Node inserted(int bit, int index, Object slot) {
+            Object[] copy = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            copy[index] = slot;
+            System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+            return new Node(bitmap | bit, copy);
+        }
+
+        Node replaced(int index, Object slot) {
+            Object[] copy = slots.clone();
+            copy[index] = slot;
+            return new Node(bitmap, copy);
+        }
+
+        Node removed(int bit, int index) {
+            Object[] copy = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            System.arraycopy(slots, index + 1, copy, index, slots.length - index - 1);
+            return new Node(bitmap & ~bit, copy);
+        }
+    }
+}
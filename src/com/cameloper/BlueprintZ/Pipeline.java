@@ -0,0 +1,216 @@
+package com.cameloper.BlueprintZ;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs command lines in three stages, each on a thread of its own.
+ * <p>
+ * The reader builds and validates the operation of each line. The executor
+ * runs the operations one after another in the order they were read, and
+ * the writer prints their answers in the same order. The stages hand over
+ * batches of lines through bounded queues: a batch is passed on once it is
+ * full or no more input is ready yet, so a bulk feed is handed over in large
+ * batches while an interactive user still gets each answer at once.
+ */
+final class Pipeline {
+    private static final int BATCH_SIZE = 1 << 8;
+    private static final int QUEUE_CAPACITY = 1 << 6;
+
+    private final BufferedReader reader;
+    private final OutputSink output;
+    private final BlockingQueue<ArrayList<Statement>> statements = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<ArrayList<String>> answers = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    /**
+     * Marks the end of the input and of the answers
+     */
+    private final ArrayList<Statement> lastStatements = new ArrayList<>();
+    private final ArrayList<String> lastAnswers = new ArrayList<>();
+    private volatile IOException readError;
+
+    /**
+     * Default constructor of Pipeline
+     *
+     * @param reader Source of the command lines
+     * @param output Destination of the answers
+     */
+    Pipeline(BufferedReader reader, OutputSink output) {
+        this.reader = reader;
+        this.output = output;
+    }
+
+    /**
+     * Runs every command line of the reader until it ends or a line asks to quit.
+     * The operations are executed on the calling thread.
+     *
+     * @return Count of lines that were run
+     * @throws IOException if the command lines could not be read
+     */
+    long run() throws IOException {
+        // The reader may still wait for input after a quit, so it must not keep the program alive
+        Thread readerThread = new Thread(this::read, "pipeline-reader");
+        readerThread.setDaemon(true);
+        Thread writerThread = new Thread(this::write, "pipeline-writer");
+        readerThread.start();
+        writerThread.start();
+
+        long count = 0;
+        try {
+            count = execute();
+        } finally {
+            putUninterruptibly(answers, lastAnswers);
+            joinUninterruptibly(writerThread);
+        }
+
+        if (readError != null)
+            throw readError;
+
+        return count;
+    }
+
+    /**
+     * Reader stage: builds and validates the operation of each line
+     */
+    private void read() {
+        try {
+            ArrayList<Statement> batch = new ArrayList<>(BATCH_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                batch.add(new Statement(line, System.nanoTime()));
+                if (batch.size() == BATCH_SIZE || !reader.ready()) {
+                    statements.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+
+            if (!batch.isEmpty())
+                statements.put(batch);
+        } catch (IOException ex) {
+            readError = ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        putUninterruptibly(statements, lastStatements);
+    }
+
+    /**
+     * Executor stage: runs each operation in order and passes its answers on
+     */
+    private long execute() {
+        long count = 0;
+        while (true) {
+            ArrayList<Statement> batch = takeUninterruptibly(statements);
+            if (batch == lastStatements)
+                return count;
+
+            ArrayList<String> lines = new ArrayList<>();
+            OutputSink sink = new OutputSink() {
+                @Override
+                public void printLine(String line) {
+                    lines.add(line);
+                }
+
+                @Override
+                public void flush() {
+                }
+            };
+
+            for (Statement statement : batch) {
+                count++;
+                if (!Main.go(statement.operationResult, statement.isValid, statement.input,
+                        statement.readTime, sink)) {
+                    putUninterruptibly(answers, lines);
+                    return count;
+                }
+            }
+
+            putUninterruptibly(answers, lines);
+        }
+    }
+
+    /**
+     * Writer stage: prints the answers in order and flushes
+     * whenever no more answers are waiting
+     */
+    private void write() {
+        while (true) {
+            ArrayList<String> lines = takeUninterruptibly(answers);
+            if (lines == lastAnswers)
+                break;
+
+            for (String line : lines) {
+                output.printLine(line);
+            }
+            if (answers.isEmpty())
+                output.flush();
+        }
+
+        output.flush();
+    }
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T element) {
+        boolean isInterrupted = false;
+        while (true) {
+            try {
+                queue.put(element);
+                break;
+            } catch (InterruptedException ex) {
+                isInterrupted = true;
+            }
+        }
+
+        if (isInterrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static <T> T takeUninterruptibly(BlockingQueue<T> queue) {
+        boolean isInterrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException ex) {
+                    isInterrupted = true;
+                }
+            }
+        } finally {
+            if (isInterrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean isInterrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                isInterrupted = true;
+            }
+        }
+
+        if (isInterrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * A command line together with its operation, built by the reader
+     */
+    private static final class Statement {
+        final String input;
+        final long readTime;
+        final Result<Operation> operationResult;
+        final boolean isValid;
+
+        Statement(String input, long readTime) {
+            this.input = input;
+            this.readTime = readTime;
+            this.operationResult = Operation.buildWith(input);
+            this.isValid = operationResult.isSuccessful() && operationResult.value.validate();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.cameloper.BlueprintZ;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the command line protocol over TCP on the loopback interface.
+ * <p>
+ * Each connection reads one command per line and gets the same answers
+ * the terminal would print. All connections share {@link PartManager#MAIN}.
+ * Every connection runs on a thread of its own: a virtual thread if the
+ * runtime provides them, otherwise a pooled platform thread.
+ * {@code quit} closes the connection only. Transactions are refused,
+ * since one would take in the writes of every other connection, and so
+ * are the commands on files, since any local process may connect.
+ */
+final class Server {
+    private static final int BACKLOG = 1024;
+    private static final String VIRTUAL_EXECUTOR_FACTORY = "newVirtualThreadPerTaskExecutor";
+
+    private final int port;
+
+    /**
+     * Default constructor of Server
+     *
+     * @param port Local port to listen on
+     */
+    Server(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Accepts connections until the process is stopped
+     *
+     * @throws IOException if the port could not be opened
+     */
+    void run() throws IOException {
+        ExecutorService executor = newConnectionExecutor();
+        try (ServerSocket serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress())) {
+            System.err.printf("Listening on %s:%d%n",
+                    serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort());
+
+            while (!serverSocket.isClosed()) {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> serve(socket));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void serve(Socket socket) {
+        try (Socket connection = socket;
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter writer = new BufferedWriter(
+                     new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))) {
+            WriterOutputSink sink = new WriterOutputSink(writer);
+            String line;
+            while ((line = reader.readLine()) != null && Main.go(line, sink)) {
+                // Answers to pipelined commands are sent together
+                if (!reader.ready())
+                    sink.flush();
+            }
+            sink.flush();
+        } catch (IOException | UncheckedIOException ex) {
+            // The client went away, nothing is left to answer
+        }
+    }
+
+    /**
+     * Gives an executor with one virtual thread per task if the runtime
+     * supports it, otherwise one that reuses platform threads
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod(VIRTUAL_EXECUTOR_FACTORY).invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.cameloper.BlueprintZ;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * Binary image of a part graph.
+ * <p>
+ * The file starts with a name table that lists every part in
+ * topological order. It is followed by the children of each part,
+ * written as indices into that table together with their amounts.
+ * Since every child comes after its parents, a snapshot is loaded
+ * without any cycle checks.
+ */
+final class Snapshot {
+    private static final int MAGIC = 0x42505A31;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes the given version of the part graph to the file with given path.
+     * The file is written next to it first and replaces it only once it is
+     * complete on disk, so a crash while writing never leaves it torn.
+     *
+     * @param list Version to write
+     * @param path Path of the snapshot file
+     * @throws IOException if the file could not be written
+     */
+    static void write(PartList list, Path path) throws IOException {
+        ArrayList<Part> parts = new ArrayList<>(list.size());
+        list.forEachPart(parts::add);
+        parts.sort(Comparator.comparingInt(Part::getOrder));
+
+        IntIntMap indices = new IntIntMap(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            indices.put(parts.get(i).getKey(), i);
+        }
+
+        Path temporaryPath = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+        FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), OUTPUT_BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(parts.size());
+            for (Part part : parts) {
+                byte[] name = part.getId().getBytes(StandardCharsets.US_ASCII);
+                out.writeInt(name.length);
+                out.write(name);
+            }
+
+            for (Part part : parts) {
+                IntIntMap children = part.getChildren();
+                out.writeInt(children.size());
+                for (int slot = children.next(-1); slot >= 0; slot = children.next(slot)) {
+                    out.writeInt(indices.get(children.keyAt(slot)));
+                    out.writeInt(children.valueAt(slot));
+                }
+            }
+
+            out.flush();
+            channel.force(true);
+        }
+
+        Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads a part graph from the snapshot file with given path
+     *
+     * @param path Path of the snapshot file
+     * @return New version holding every part of the snapshot
+     * @throws IOException if the file could not be read or is not a valid snapshot
+     */
+    static PartList read(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("not a snapshot: " + path);
+
+            int partCount = buffer.getInt();
+            if (partCount < 0 || partCount > buffer.remaining())
+                throw new IOException("invalid part count: " + partCount);
+
+            int namesStart = buffer.position();
+            for (int i = 0; i < partCount; i++) {
+                int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining())
+                    throw new IOException("invalid name length: " + length);
+
+                buffer.position(buffer.position() + length);
+            }
+
+            // Count the edges first, so that each part is created with room for all of them
+            int adjacencyStart = buffer.position();
+            int[] childCounts = new int[partCount];
+            int[] parentCounts = new int[partCount];
+            for (int i = 0; i < partCount; i++) {
+                childCounts[i] = buffer.getInt();
+                for (int j = 0; j < childCounts[i]; j++) {
+                    int index = buffer.getInt();
+                    int amount = buffer.getInt();
+                    // Children always follow their parents, anything else could hide a cycle
+                    if (index <= i || index >= partCount || amount < Main.Defaults.MIN_AMOUNT)
+                        throw new IOException("invalid child of part " + i);
+
+                    parentCounts[index]++;
+                }
+            }
+
+            PartList list = new PartList();
+            Part[] parts = new Part[partCount];
+            byte[] name = new byte[0];
+            buffer.position(namesStart);
+            for (int i = 0; i < partCount; i++) {
+                int length = buffer.getInt();
+                if (name.length < length)
+                    name = new byte[length];
+                buffer.get(name, 0, length);
+
+                String id = new String(name, 0, length, StandardCharsets.US_ASCII);
+                if (list.contains(id))
+                    throw new IOException("duplicate part: " + id);
+
+                parts[i] = list.addLoadedPart(id, childCounts[i], parentCounts[i]);
+            }
+
+            buffer.position(adjacencyStart);
+            for (int i = 0; i < partCount; i++) {
+                int childCount = buffer.getInt();
+                for (int j = 0; j < childCount; j++) {
+                    int index = buffer.getInt();
+                    list.addLoadedChild(parts[i], parts[index], buffer.getInt());
+                }
+            }
+
+            return list;
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("truncated snapshot: " + path, ex);
+        }
+    }
+}
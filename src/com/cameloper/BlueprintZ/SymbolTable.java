@@ -0,0 +1,47 @@
+package com.cameloper.BlueprintZ;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns part names to dense integer keys.
+ * Keys are never released, so a name keeps its key even after
+ * the part is removed and added again.
+ * <p>
+ * Keys are looked up without locking, so readers of any version
+ * can use the table while a writer interns new names.
+ */
+class SymbolTable {
+    /**
+     * Key that stands for a name without any interned key
+     */
+    static final int NO_KEY = -1;
+
+    private final ConcurrentHashMap<String, Integer> keys = new ConcurrentHashMap<>();
+
+    /**
+     * Gives the key of given name, creating one if not present
+     *
+     * @param name Name to intern
+     * @return Key of the name
+     */
+    synchronized int intern(String name) {
+        Integer key = keys.get(name);
+        if (key != null)
+            return key;
+
+        int newKey = keys.size();
+        keys.put(name, newKey);
+        return newKey;
+    }
+
+    /**
+     * Gives the key of given name without interning it
+     *
+     * @param name Name to look up
+     * @return Key of the name, or {@code NO_KEY} if not interned
+     */
+    int keyOf(String name) {
+        Integer key = keys.get(name);
+        return key == null ? NO_KEY : key;
+    }
+}
@@ -0,0 +1,17 @@
+package com.cameloper.BlueprintZ;
+
+import edu.kit.informatik.Terminal;
+
+/**
+ * Prints each line to the terminal as soon as it is given
+ */
+class TerminalOutputSink implements OutputSink {
+    @Override
+    public void printLine(String line) {
+        Terminal.printLine(line);
+    }
+
+    @Override
+    public void flush() {
+    }
+}
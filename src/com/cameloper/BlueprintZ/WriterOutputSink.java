@@ -0,0 +1,43 @@
+package com.cameloper.BlueprintZ;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Writes each line to a character stream, such as the one of a connection.
+ * Lines are sent once the sink is flushed.
+ */
+class WriterOutputSink implements OutputSink {
+    private static final char LINE_SEPARATOR = '\n';
+
+    private final Writer writer;
+
+    /**
+     * Default constructor of WriterOutputSink
+     *
+     * @param writer Buffered stream to write the lines to
+     */
+    WriterOutputSink(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void printLine(String line) {
+        try {
+            writer.write(line);
+            writer.write(LINE_SEPARATOR);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}